@@ -11,7 +11,8 @@ import lombok.Data;
 import lombok.ToString;
 
 @NamedQueries({
-    @NamedQuery(name="getFederatedGroupAttribute", query="select attr from FederatedGroupAttributeEntity attr where attr.groupId = :groupId and lower(attr.realmId) = lower(:realmId) and attr.storageProviderId = :storageProviderId and name = :name")
+    @NamedQuery(name="getFederatedGroupAttribute", query="select attr from FederatedGroupAttributeEntity attr where attr.groupId = :groupId and lower(attr.realmId) = lower(:realmId) and attr.storageProviderId = :storageProviderId and name = :name"),
+    @NamedQuery(name="getFederatedGroupAttributesByValues", query="select attr from FederatedGroupAttributeEntity attr where lower(attr.realmId) = lower(:realmId) and attr.storageProviderId = :storageProviderId and attr.name = :name and attr.value in :values")
 })
 @Data
 @ToString
@@ -0,0 +1,69 @@
+package dev.suvera.keycloak.scim2.storage.jpa;
+
+import lombok.Data;
+import lombok.ToString;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+import java.util.Date;
+
+/**
+ * Progress of the full synchronization of one SCIM component. Users are synced in id order,
+ * so everything up to LAST_USER_ID has been pushed and an interrupted run can continue after it.
+ */
+@Data
+@ToString
+@NamedQueries({
+        @NamedQuery(name = "getSyncCheckpointsByRealm", query = "select c from ScimSyncCheckpoint c where c.realmId = :realmId order by c.componentId"),
+})
+@Entity
+@Table(name = "SCIM_SYNC_CHECKPOINT")
+public class ScimSyncCheckpoint {
+
+    @Id
+    @Column(name = "COMPONENT_ID")
+    private String componentId;
+
+    @Column(name = "REALM_ID", nullable = false)
+    private String realmId;
+
+    @Column(name = "LAST_USER_ID")
+    private String lastUserId;
+
+    @Column(name = "TOTAL")
+    private long total;
+
+    @Column(name = "PROCESSED")
+    private long processed;
+
+    @Column(name = "ADDED")
+    private long added;
+
+    @Column(name = "UPDATED")
+    private long updated;
+
+    @Column(name = "FAILED")
+    private long failed;
+
+    @Column(name = "STARTED_ON", nullable = false)
+    private Date startedOn;
+
+    /**
+     * When the current run started or resumed, and how many users were processed before it.
+     */
+    @Column(name = "RESUMED_ON", nullable = false)
+    private Date resumedOn;
+
+    @Column(name = "RESUMED_PROCESSED")
+    private long resumedProcessed;
+
+    @Column(name = "UPDATED_ON", nullable = false)
+    private Date updatedOn;
+
+    @Column(name = "FINISHED_ON")
+    private Date finishedOn;
+}
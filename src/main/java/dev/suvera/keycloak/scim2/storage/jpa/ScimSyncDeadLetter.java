@@ -0,0 +1,97 @@
+package dev.suvera.keycloak.scim2.storage.jpa;
+
+import lombok.Data;
+import lombok.ToString;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.util.Date;
+
+/**
+ * SCIM sync job that ran out of retries. Kept apart from SCIM_SYNC_JOB_QUEUE so the
+ * pending job queries only see work that can still succeed.
+ */
+@Data
+@ToString
+@Entity
+@Table(name = "SCIM_SYNC_DEAD_LETTER")
+public class ScimSyncDeadLetter {
+    public ScimSyncDeadLetter() { }
+
+    public ScimSyncDeadLetter(ScimSyncJobQueue job) {
+        this.id = job.getId();
+        this.userId = job.getUserId();
+        this.groupId = job.getGroupId();
+        this.roleId = job.getRoleId();
+        this.roleName = job.getRoleName();
+        this.action = job.getAction();
+        this.realmId = job.getRealmId();
+        this.componentId = job.getComponentId();
+        this.externalId = job.getExternalId();
+        this.attempts = job.getProcessed();
+        this.createdOn = job.getCreatedOn();
+    }
+
+    @Id
+    @Column(name = "ID")
+    private String id;
+
+    @Column(name = "USER_ID")
+    private String userId;
+
+    @Column(name = "GROUP_ID")
+    private String groupId;
+
+    @Column(name = "ROLE_ID")
+    private String roleId;
+
+    @Column(name = "ROLE_NAME")
+    private String roleName;
+
+    @Column(name = "ACTION", nullable = false)
+    private String action;
+
+    @Column(name = "REALM_ID", nullable = false)
+    private String realmId;
+
+    @Column(name = "COMPONENT_ID")
+    private String componentId;
+
+    @Column(name = "EXTERNAL_ID")
+    private String externalId;
+
+    @Column(name = "ATTEMPTS")
+    private int attempts;
+
+    @Column(name = "LAST_ERROR")
+    private String lastError;
+
+    @Column(name = "HTTP_STATUS")
+    private Integer httpStatus;
+
+    @Column(name = "CREATED_ON")
+    private Date createdOn;
+
+    @Column(name = "LAST_ATTEMPT_AT")
+    private Date lastAttemptAt = new Date();
+
+    /**
+     * Turns the dead letter back into a fresh job with the original payload.
+     */
+    public ScimSyncJobQueue toJob(String jobId) {
+        ScimSyncJobQueue job = new ScimSyncJobQueue();
+        job.setId(jobId);
+        job.setUserId(userId);
+        job.setGroupId(groupId);
+        job.setRoleId(roleId);
+        job.setRoleName(roleName);
+        job.setAction(action);
+        job.setRealmId(realmId);
+        job.setComponentId(componentId);
+        job.setExternalId(externalId);
+        job.setProcessed(0);
+        return job;
+    }
+}
@@ -6,9 +6,12 @@ import lombok.ToString;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 import jakarta.persistence.NamedQueries;
 import jakarta.persistence.NamedQuery;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
 import java.util.Date;
 
 /**
@@ -16,13 +19,21 @@ import java.util.Date;
  * date: 10/15/2020 8:08 PM
  */
 @NamedQueries({
-    @NamedQuery(name="getPendingJobs", query="select u from ScimSyncJobQueue u where u.processed between 0 and 2 order by u.createdOn asc"),
-    @NamedQuery(name="getJobByIdAndAction", query="select u from ScimSyncJobQueue u where (u.userId = :userId or u.groupId = :groupId) and u.action = :action")
+    @NamedQuery(name="getPendingJobsAfter", query="select new dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue(u.id, u.userId, u.groupId, u.roleId, u.roleName, u.action, u.realmId, u.componentId, u.processed, u.createdOn, u.externalId) from ScimSyncJobQueue u where u.nextAttemptAt <= :now and (u.leaseUntil is null or u.leaseUntil < :now) and (u.createdOn > :createdOn or (u.createdOn = :createdOn and u.id > :id)) order by u.createdOn asc, u.id asc"),
+    @NamedQuery(name="leaseJobs", query="update ScimSyncJobQueue u set u.leaseOwner = :leaseOwner, u.leaseUntil = :leaseUntil where u.id in :ids"),
+    @NamedQuery(name="deleteJobs", query="delete from ScimSyncJobQueue u where u.id in :ids"),
+    @NamedQuery(name="releaseJobs", query="update ScimSyncJobQueue u set u.leaseOwner = null, u.leaseUntil = null where u.id in :ids"),
+    @NamedQuery(name="claimJob", query="update ScimSyncJobQueue u set u.leaseOwner = :leaseOwner, u.leaseUntil = :leaseUntil where u.id = :id and (u.leaseUntil is null or u.leaseUntil < :now)"),
+    @NamedQuery(name="getIdleJobs", query="select new dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue(u.id, u.userId, u.groupId, u.roleId, u.roleName, u.action, u.realmId, u.componentId, u.processed, u.createdOn, u.externalId) from ScimSyncJobQueue u where u.createdOn < :before and (u.nextAttemptAt is null or u.nextAttemptAt < :before) and (u.leaseUntil is null or u.leaseUntil < :now) order by u.createdOn asc, u.id asc"),
+    @NamedQuery(name="getJobByDedupeKey", query="select u from ScimSyncJobQueue u where u.dedupeKey = :dedupeKey"),
+    @NamedQuery(name="resetJobByDedupeKey", query="update ScimSyncJobQueue u set u.processed = 0, u.nextAttemptAt = :now, u.createdOn = :now where u.dedupeKey = :dedupeKey")
 })
 @Data
 @ToString
 @Entity
-@Table(name = "SCIM_SYNC_JOB_QUEUE")
+@Table(name = "SCIM_SYNC_JOB_QUEUE", indexes = {
+    @Index(name = "IDX_SCIM_SYNC_JOB_DEDUPE_KEY", columnList = "DEDUPE_KEY", unique = true)
+})
 public class ScimSyncJobQueue {
     public ScimSyncJobQueue() { }
 
@@ -38,6 +49,28 @@ public class ScimSyncJobQueue {
         this.externalId = other.externalId;
         this.roleId = other.roleId;
         this.roleName = other.roleName;
+        this.dedupeKey = other.dedupeKey;
+        this.leaseOwner = other.leaseOwner;
+        this.leaseUntil = other.leaseUntil != null ? new Date(other.leaseUntil.getTime()) : null;
+        this.nextAttemptAt = other.nextAttemptAt != null ? new Date(other.nextAttemptAt.getTime()) : null;
+    }
+
+    /**
+     * Dispatch projection used by the pending job drain.
+     */
+    public ScimSyncJobQueue(String id, String userId, String groupId, String roleId, String roleName, String action,
+            String realmId, String componentId, int processed, Date createdOn, String externalId) {
+        this.id = id;
+        this.userId = userId;
+        this.groupId = groupId;
+        this.roleId = roleId;
+        this.roleName = roleName;
+        this.action = action;
+        this.realmId = realmId;
+        this.componentId = componentId;
+        this.processed = processed;
+        this.createdOn = createdOn;
+        this.externalId = externalId;
     }
 
     @Id
@@ -73,4 +106,44 @@ public class ScimSyncJobQueue {
 
     @Column(name = "EXTERNAL_ID")
     private String externalId;
+
+    @Column(name = "DEDUPE_KEY", nullable = false)
+    private String dedupeKey;
+
+    @Column(name = "LEASE_OWNER")
+    private String leaseOwner;
+
+    @Column(name = "LEASE_UNTIL")
+    private Date leaseUntil;
+
+    /**
+     * When the job becomes eligible for the drain again, null once retries are exhausted.
+     */
+    @Column(name = "NEXT_ATTEMPT_AT")
+    private Date nextAttemptAt;
+
+    /**
+     * Key identifying the same piece of work regardless of job id. Must stay in sync
+     * with the backfill expression in skss-changelog.xml.
+     */
+    public String computeDedupeKey() {
+        return action + ":" + nullToEmpty(userId) + ":" + nullToEmpty(groupId) + ":" + nullToEmpty(roleId);
+    }
+
+    @PrePersist
+    protected void prePersist() {
+        if (nextAttemptAt == null && processed == 0) {
+            nextAttemptAt = createdOn != null ? createdOn : new Date();
+        }
+        updateDedupeKey();
+    }
+
+    @PreUpdate
+    protected void updateDedupeKey() {
+        dedupeKey = computeDedupeKey();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
 }
@@ -12,7 +12,8 @@ import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
 public class SkssEntityProvider implements JpaEntityProvider {
 
     public List<Class<?>> getEntities() {
-        return Arrays.asList(ScimSyncJobQueue.class, FederatedGroupAttributeEntity.class);
+        return Arrays.asList(ScimSyncJobQueue.class, ScimSyncDeadLetter.class, ScimSyncCheckpoint.class,
+                FederatedGroupAttributeEntity.class);
     }
 
     public String getChangelogLocation() {
@@ -0,0 +1,232 @@
+package dev.suvera.keycloak.scim2.storage.rest;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.keycloak.models.AdminRoles;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.Constants;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.resource.RealmResourceProvider;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncCheckpoint;
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncDeadLetter;
+import dev.suvera.keycloak.scim2.storage.storage.ScimClient2Factory;
+import dev.suvera.keycloak.scim2.storage.storage.ScimJobDebouncer;
+import dev.suvera.keycloak.scim2.storage.storage.ScimJobDispatcher;
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncCheckpointManager;
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncDeadLetterManager;
+import dev.suvera.scim2.client.CircuitBreaker;
+import dev.suvera.scim2.client.EndpointLimiter;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.ForbiddenException;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotAuthorizedException;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Admin operations on the SCIM sync queue. Callers need a bearer token of the realm
+ * with the realm-management manage-users role.
+ */
+public class ScimSyncResourceProvider implements RealmResourceProvider {
+    private static final int DEFAULT_MAX_RESULTS = 100;
+
+    private final KeycloakSession session;
+
+    public ScimSyncResourceProvider(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public Object getResource() {
+        return this;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @GET
+    @Path("dead-letters")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<ScimSyncDeadLetter> getDeadLetters(
+            @QueryParam("action") String action,
+            @QueryParam("componentId") String componentId,
+            @QueryParam("from") Long from,
+            @QueryParam("to") Long to,
+            @QueryParam("first") Integer first,
+            @QueryParam("max") Integer max) {
+        RealmModel realm = requireManageUsers();
+
+        return new ScimSyncDeadLetterManager(session).getDeadLetters(
+                createFilter(realm, action, componentId, from, to),
+                first != null && first >= 0 ? first : 0,
+                max != null && max > 0 ? max : DEFAULT_MAX_RESULTS);
+    }
+
+    @POST
+    @Path("dead-letters/replay")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Integer> replayDeadLetters(
+            @QueryParam("action") String action,
+            @QueryParam("componentId") String componentId,
+            @QueryParam("from") Long from,
+            @QueryParam("to") Long to) {
+        RealmModel realm = requireManageUsers();
+
+        int replayed = new ScimSyncDeadLetterManager(session)
+                .replay(createFilter(realm, action, componentId, from, to));
+
+        return Map.of("replayed", replayed);
+    }
+
+    /**
+     * Load of this node's job dispatcher: concurrency cap, running and pending jobs, the
+     * depth of every non empty lane, and the jobs still held back by the debouncer.
+     */
+    @GET
+    @Path("dispatcher")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getDispatcher() {
+        requireManageUsers();
+
+        ScimJobDispatcher dispatcher = ScimJobDispatcher.of(session);
+        return Map.of(
+                "concurrency", dispatcher.getConcurrency(),
+                "running", dispatcher.getRunning(),
+                "pending", dispatcher.getPending(),
+                "laneDepths", dispatcher.getLaneDepths(),
+                "debounced", ScimJobDebouncer.of(session).getBuffered());
+    }
+
+    /**
+     * Client side limits of the SCIM endpoints of this realm on this node, by component id:
+     * current concurrency window, requests in flight, smoothed latency, rate limit, throttled
+     * responses, the end of a Retry-After pause and the circuit breaker state.
+     */
+    @GET
+    @Path("limits")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Map<String, Object>> getLimits() {
+        RealmModel realm = requireManageUsers();
+
+        Map<String, Map<String, Object>> limits = new TreeMap<>();
+        ScimClient2Factory.instances.forEach((componentId, client) -> {
+            if (!realm.getId().equals(client.getComponentModel().getParentId())) {
+                return;
+            }
+
+            EndpointLimiter limiter = client.getLimiter();
+            CircuitBreaker breaker = ScimClient2Factory.getCircuitBreaker(client.getComponentModel());
+            limits.put(componentId, Map.of(
+                    "limit", limiter.getLimit(),
+                    "inFlight", limiter.getInFlight(),
+                    "latencyMillis", limiter.getLatencyMillis(),
+                    "ratePerSecond", limiter.getRatePerSecond(),
+                    "throttled", limiter.getThrottled(),
+                    "pausedUntil", limiter.getPausedUntil(),
+                    "circuit", breaker.getState(),
+                    "circuitOpenUntil", breaker.getOpenUntil()));
+        });
+        return limits;
+    }
+
+    /**
+     * Progress of the full synchronization of every component of the realm, by component id:
+     * processed and total users, counters, the rate of the current run and the estimated
+     * seconds left.
+     */
+    @GET
+    @Path("sync-progress")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Map<String, Object>> getSyncProgress() {
+        RealmModel realm = requireManageUsers();
+
+        Map<String, Map<String, Object>> progress = new TreeMap<>();
+        new ScimSyncCheckpointManager(session).getCheckpoints(realm.getId())
+                .forEach(checkpoint -> progress.put(checkpoint.getComponentId(), toProgress(checkpoint)));
+        return progress;
+    }
+
+    /**
+     * Discards the checkpoint of a component, so its next full synchronization starts from
+     * the first user instead of resuming.
+     */
+    @DELETE
+    @Path("sync-progress/{componentId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Boolean> resetSyncProgress(@PathParam("componentId") String componentId) {
+        RealmModel realm = requireManageUsers();
+
+        ScimSyncCheckpointManager checkpoints = new ScimSyncCheckpointManager(session);
+        ScimSyncCheckpoint checkpoint = checkpoints.getCheckpoint(componentId);
+        if (checkpoint == null || !realm.getId().equals(checkpoint.getRealmId())) {
+            throw new NotFoundException("No synchronization checkpoint for component " + componentId);
+        }
+
+        return Map.of("deleted", checkpoints.delete(componentId));
+    }
+
+    private Map<String, Object> toProgress(ScimSyncCheckpoint checkpoint) {
+        long elapsedMillis = checkpoint.getUpdatedOn().getTime() - checkpoint.getResumedOn().getTime();
+        long processedSinceResume = checkpoint.getProcessed() - checkpoint.getResumedProcessed();
+        double ratePerSecond = elapsedMillis > 0 ? processedSinceResume * 1000.0 / elapsedMillis : 0;
+        long remaining = Math.max(0, checkpoint.getTotal() - checkpoint.getProcessed());
+
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("finished", checkpoint.getFinishedOn() != null);
+        progress.put("processed", checkpoint.getProcessed());
+        progress.put("total", checkpoint.getTotal());
+        progress.put("added", checkpoint.getAdded());
+        progress.put("updated", checkpoint.getUpdated());
+        progress.put("failed", checkpoint.getFailed());
+        progress.put("lastUserId", checkpoint.getLastUserId());
+        progress.put("startedOn", checkpoint.getStartedOn().getTime());
+        progress.put("updatedOn", checkpoint.getUpdatedOn().getTime());
+        progress.put("finishedOn", checkpoint.getFinishedOn() != null ? checkpoint.getFinishedOn().getTime() : null);
+        progress.put("ratePerSecond", ratePerSecond);
+        progress.put("etaSeconds", checkpoint.getFinishedOn() == null && ratePerSecond > 0
+                ? (long) Math.ceil(remaining / ratePerSecond)
+                : null);
+        return progress;
+    }
+
+    private ScimSyncDeadLetterManager.Filter createFilter(RealmModel realm, String action, String componentId, Long from, Long to) {
+        return new ScimSyncDeadLetterManager.Filter(
+                realm.getId(),
+                action,
+                componentId,
+                from != null ? new Date(from) : null,
+                to != null ? new Date(to) : null);
+    }
+
+    private RealmModel requireManageUsers() {
+        AuthenticationManager.AuthResult auth = new AppAuthManager.BearerTokenAuthenticator(session).authenticate();
+        if (auth == null) {
+            throw new NotAuthorizedException("Bearer");
+        }
+
+        RealmModel realm = session.getContext().getRealm();
+        ClientModel realmManagement = realm.getClientByClientId(Constants.REALM_MANAGEMENT_CLIENT_ID);
+        RoleModel manageUsers = realmManagement != null ? realmManagement.getRole(AdminRoles.MANAGE_USERS) : null;
+
+        if (manageUsers == null || !auth.user().hasRole(manageUsers)) {
+            throw new ForbiddenException("Missing " + AdminRoles.MANAGE_USERS + " role");
+        }
+
+        return realm;
+    }
+}
@@ -0,0 +1,36 @@
+package dev.suvera.keycloak.scim2.storage.rest;
+
+import org.keycloak.Config.Scope;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+/**
+ * Exposes the SCIM sync admin endpoints under /realms/{realm}/scim-sync.
+ */
+public class ScimSyncResourceProviderFactory implements RealmResourceProviderFactory {
+    public static final String ID = "scim-sync";
+
+    @Override
+    public RealmResourceProvider create(KeycloakSession session) {
+        return new ScimSyncResourceProvider(session);
+    }
+
+    @Override
+    public void init(Scope config) {
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
@@ -41,4 +41,20 @@ public final class ComponentModelUtils {
         return getComponents(factory, realm.getName(), providerId)
         .map(c -> realm.getComponent(c.getId()));
     }
-}
+
+    /**
+     * Returns the SCIM component with the given id, or the first SCIM component of the realm
+     * when the id is null or names another kind of component, e.g. an LDAP federation link.
+     */
+    public static ComponentModel getScimComponent(RealmModel realm, String componentId) {
+        ComponentModel component = componentId != null ? realm.getComponent(componentId) : null;
+        if (component != null && SkssStorageProviderFactory.PROVIDER_ID.equals(component.getProviderId())) {
+            return component;
+        }
+
+        return realm.getComponentsStream(realm.getId())
+                .filter(c -> SkssStorageProviderFactory.PROVIDER_ID.equals(c.getProviderId()))
+                .findFirst()
+                .orElse(null);
+    }
+}
\ No newline at end of file
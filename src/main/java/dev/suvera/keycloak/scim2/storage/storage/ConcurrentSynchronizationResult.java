@@ -0,0 +1,64 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import org.keycloak.storage.user.SynchronizationResult;
+
+/**
+ * Synchronization result that can be counted from several sync workers at once.
+ */
+public class ConcurrentSynchronizationResult extends SynchronizationResult {
+
+    @Override
+    public synchronized void increaseAdded() {
+        super.increaseAdded();
+    }
+
+    @Override
+    public synchronized void increaseUpdated() {
+        super.increaseUpdated();
+    }
+
+    @Override
+    public synchronized void increaseRemoved() {
+        super.increaseRemoved();
+    }
+
+    @Override
+    public synchronized void increaseFailed() {
+        super.increaseFailed();
+    }
+
+    @Override
+    public synchronized void add(SynchronizationResult other) {
+        super.add(other);
+    }
+
+    @Override
+    public synchronized int getAdded() {
+        return super.getAdded();
+    }
+
+    @Override
+    public synchronized int getUpdated() {
+        return super.getUpdated();
+    }
+
+    @Override
+    public synchronized int getRemoved() {
+        return super.getRemoved();
+    }
+
+    @Override
+    public synchronized int getFailed() {
+        return super.getFailed();
+    }
+
+    @Override
+    public synchronized String getStatus() {
+        return super.getStatus();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return super.toString();
+    }
+}
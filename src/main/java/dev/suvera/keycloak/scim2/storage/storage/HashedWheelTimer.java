@@ -0,0 +1,108 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Timer for many short, imprecise delays. Timeouts are hashed into a ring of buckets by their
+ * deadline tick, so scheduling is O(1) and one thread expires them with tick precision.
+ * Tasks run on that thread and must be quick.
+ */
+final class HashedWheelTimer {
+    private static final Logger log = Logger.getLogger(HashedWheelTimer.class);
+
+    private final long tickMillis;
+    private final Queue<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startTime = System.currentTimeMillis();
+    private final Thread worker;
+    private volatile boolean stopped;
+
+    @SuppressWarnings("unchecked")
+    HashedWheelTimer(String name, long tickMillis, int ticksPerWheel) {
+        this.tickMillis = tickMillis;
+
+        int size = Integer.highestOneBit(Math.max(ticksPerWheel, 2) - 1) << 1;
+        this.wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.mask = size - 1;
+
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    void schedule(Runnable task, long delayMillis) {
+        pending.add(new Timeout(System.currentTimeMillis() + Math.max(delayMillis, 0), task));
+    }
+
+    void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+
+        while (!stopped) {
+            long sleep = startTime + (tick + 1) * tickMillis - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+            }
+
+            transferPending(tick);
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferPending(long tick) {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            long deadlineTick = (timeout.deadline - startTime) / tickMillis;
+            timeout.rounds = (deadlineTick - tick) / wheel.length;
+            wheel[(int) (Math.max(deadlineTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        Iterator<Timeout> timeouts = bucket.iterator();
+        while (timeouts.hasNext()) {
+            Timeout timeout = timeouts.next();
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                continue;
+            }
+
+            timeouts.remove();
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                log.error("Timer task failed", e);
+            }
+        }
+    }
+
+    private static final class Timeout {
+        private final long deadline;
+        private final Runnable task;
+        private long rounds;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import org.infinispan.Cache;
+import org.keycloak.Config.Scope;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Keeps the job queue in Keycloak's embedded Infinispan, so enqueueing and draining jobs
+ * does not touch the database. The cache must be replicated across the cluster; the
+ * default, Keycloak's work cache, is. Set {@code --spi-scim-job-queue-backend-infinispan-cache}
+ * to use another one.
+ */
+public class InfinispanScimJobQueueBackendFactory implements ScimJobQueueBackendFactory {
+    public static final String PROVIDER_ID = "infinispan";
+
+    private String cacheName;
+
+    @Override
+    public ScimJobQueueBackend create(KeycloakSession session) {
+        Cache<String, Object> cache = session.getProvider(InfinispanConnectionProvider.class).getCache(cacheName);
+        return new KeyValueScimJobQueueBackend(
+                new InfinispanScimJobStore(cache),
+                new ScimSyncDeadLetterManager(session)::deadLetter,
+                ScimJobQueueBackend.LEASE_OWNER);
+    }
+
+    @Override
+    public void init(Scope config) {
+        cacheName = config.get("cache", InfinispanConnectionProvider.WORK_CACHE_NAME);
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
@@ -0,0 +1,67 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.infinispan.Cache;
+import org.infinispan.commons.util.CloseableIterator;
+import org.infinispan.context.Flag;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+
+/**
+ * Stores jobs as JSON strings in a replicated Infinispan cache, by default Keycloak's work
+ * cache. Conditional writes compare the encoded jobs, and since every node holds all entries
+ * of a replicated cache the scan of pending jobs stays local.
+ */
+public class InfinispanScimJobStore implements ScimJobStore {
+    static final String KEY_PREFIX = "scim-sync-job:";
+
+    private final Cache<String, Object> cache;
+
+    public InfinispanScimJobStore(Cache<String, Object> cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public ScimSyncJobQueue get(String key) {
+        Object value = cache.get(KEY_PREFIX + key);
+        return value instanceof String ? ScimJobCodec.decode((String) value) : null;
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, ScimSyncJobQueue job) {
+        return cache.putIfAbsent(KEY_PREFIX + key, ScimJobCodec.encode(job)) == null;
+    }
+
+    @Override
+    public boolean replace(String key, ScimSyncJobQueue expected, ScimSyncJobQueue job) {
+        return cache.replace(KEY_PREFIX + key, ScimJobCodec.encode(expected), ScimJobCodec.encode(job));
+    }
+
+    @Override
+    public boolean remove(String key, ScimSyncJobQueue expected) {
+        return cache.remove(KEY_PREFIX + key, ScimJobCodec.encode(expected));
+    }
+
+    @Override
+    public Stream<ScimSyncJobQueue> values() {
+        List<ScimSyncJobQueue> jobs = new ArrayList<>();
+
+        try (CloseableIterator<Map.Entry<String, Object>> entries = cache.getAdvancedCache()
+                .withFlags(Flag.CACHE_MODE_LOCAL)
+                .entrySet()
+                .iterator()) {
+            while (entries.hasNext()) {
+                Map.Entry<String, Object> entry = entries.next();
+                if (entry.getKey().startsWith(KEY_PREFIX) && entry.getValue() instanceof String) {
+                    jobs.add(ScimJobCodec.decode((String) entry.getValue()));
+                }
+            }
+        }
+
+        return jobs.stream();
+    }
+}
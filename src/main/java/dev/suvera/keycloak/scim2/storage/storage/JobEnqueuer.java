@@ -1,28 +1,25 @@
 package dev.suvera.keycloak.scim2.storage.storage;
 
-import java.nio.charset.StandardCharsets;
-import java.util.UUID;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.jboss.logging.Logger;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.utils.KeycloakModelUtils;
-import org.keycloak.storage.user.SynchronizationResult;
-import org.keycloak.timer.TimerProvider;
 
 import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
 
 public class JobEnqueuer {
     private static final Logger log = Logger.getLogger(JobEnqueuer.class);
     private KeycloakSession session;
-    private TimerProvider timer;
-    private ScimSyncJobQueueManager queueManager;
+    private ScimJobQueueBackend queueManager;
+    private final Map<String, Long> quietPeriods = new HashMap<>();
 
     public JobEnqueuer(KeycloakSession session) {
         this.session = session;
         queueManager = ScimSyncJobQueueManagerFactory.create(session);
-        timer = session.getProvider(TimerProvider.class);
     }
 
     public void enqueueUserCreateJob(String realmId, String userId) {
@@ -40,7 +37,7 @@ public class JobEnqueuer {
         entity.setAction(ScimSyncJob.CREATE_USER_EXTERNAL);
         entity.setUserId(userId);
 
-        queueManager.enqueueJobAndResetProcessed(entity);
+        ScimJobOutbox.enqueue(session, queueManager, entity, 0, false, ScimJobDebouncer.of(session)::add);
 
         log.infof("External user with id %s scheduled to be added or updated.", userId);
     }
@@ -202,32 +199,32 @@ public class JobEnqueuer {
         return entity;
     }
 
+    /**
+     * Enqueues the job in the current transaction and dispatches it once that commits and
+     * its entity has been quiet for a while, see {@link ScimJobOutbox} and {@link ScimJobDebouncer}.
+     */
     private void run(ScimSyncJobQueue job) {
-        queueManager.enqueueJobAndResetProcessed(job);
-        String id = generateJobId(job);
-
-        timer.scheduleTask(s -> {
-            timer.cancelTask(id);
-            ScimSyncJob sync = new ScimSyncJob(s);
-            
-            ScimSyncJobQueue syncJobQueue = new ScimSyncJobQueue(job);
-            SynchronizationResult result = new SynchronizationResult();
-
-            sync.execute(syncJobQueue, result);
-        }, 500, id);
-    }
-
-    private String generateJobId(ScimSyncJobQueue job) {
         if (job.getUserId() == null && job.getGroupId() == null) {
             throw new IllegalArgumentException("Cannot run the job, neither userId or groupId is available.");
         }
 
-        String userId = job.getUserId() != null ? job.getUserId() : "null";
-        String groupId = job.getGroupId() != null ? job.getGroupId() : "null";
-        String roleId = job.getRoleId() != null ? job.getRoleId() : "null";
+        ScimJobOutbox.enqueue(session, queueManager, job, getQuietPeriod(job), true,
+                ScimJobDebouncer.of(session)::add);
+    }
+
+    /**
+     * Quiet period of the job's component, or of the realm's SCIM component for jobs that
+     * are not bound to one.
+     */
+    private long getQuietPeriod(ScimSyncJobQueue job) {
+        String key = job.getRealmId() + ":" + job.getComponentId();
+        return quietPeriods.computeIfAbsent(key, k -> {
+            RealmModel realm = session.realms().getRealm(job.getRealmId());
+            if (realm == null) {
+                return ScimJobDebouncer.DEFAULT_QUIET_PERIOD_MILLIS;
+            }
 
-        String raw = userId + ":" + groupId + ":" + roleId;
-        UUID uuid = UUID.nameUUIDFromBytes(raw.getBytes(StandardCharsets.UTF_8));
-        return uuid.toString();
+            return ScimJobDebouncer.quietPeriodOf(ComponentModelUtils.getScimComponent(realm, job.getComponentId()));
+        });
     }
 }
@@ -0,0 +1,87 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.keycloak.Config.Scope;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Keeps the job queue in a memory-mapped journal on local disk, for single node deployments
+ * that want durable jobs without database writes. Options, all under
+ * {@code --spi-scim-job-queue-backend-journal-}:
+ * <ul>
+ * <li>{@code directory}, defaults to {@code scim-sync-journal} in the server data directory</li>
+ * <li>{@code segment-size-mb}, size of each segment file, defaults to 16</li>
+ * <li>{@code fsync}, force every record to disk before returning, defaults to true</li>
+ * </ul>
+ */
+public class JournalScimJobQueueBackendFactory implements ScimJobQueueBackendFactory {
+    public static final String PROVIDER_ID = "journal";
+
+    private Path directory;
+    private int segmentSize;
+    private boolean fsync;
+    private JournalScimJobStore store;
+
+    @Override
+    public ScimJobQueueBackend create(KeycloakSession session) {
+        return new KeyValueScimJobQueueBackend(
+                getStore(),
+                new ScimSyncDeadLetterManager(session)::deadLetter,
+                ScimJobQueueBackend.LEASE_OWNER);
+    }
+
+    @Override
+    public void init(Scope config) {
+        String configured = config.get("directory");
+        directory = configured != null ? Paths.get(configured) : defaultDirectory();
+        segmentSize = config.getInt("segmentSizeMb", 16) * 1024 * 1024;
+        fsync = config.getBoolean("fsync", true);
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+    }
+
+    @Override
+    public synchronized void close() {
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+
+    /**
+     * Opened on first use, so nothing is written to disk unless this backend is selected.
+     */
+    private synchronized JournalScimJobStore getStore() {
+        if (store == null) {
+            try {
+                store = new JournalScimJobStore(directory, segmentSize, fsync);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open SCIM job journal " + directory, e);
+            }
+        }
+        return store;
+    }
+
+    private static Path defaultDirectory() {
+        String dataDir = System.getProperty("jboss.server.data.dir");
+        if (dataDir == null && System.getProperty("kc.home.dir") != null) {
+            dataDir = Paths.get(System.getProperty("kc.home.dir"), "data").toString();
+        }
+        if (dataDir == null) {
+            dataDir = System.getProperty("java.io.tmpdir");
+        }
+        return Paths.get(dataDir, "scim-sync-journal");
+    }
+}
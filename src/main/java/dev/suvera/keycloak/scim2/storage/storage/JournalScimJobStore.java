@@ -0,0 +1,125 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jboss.logging.Logger;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+
+/**
+ * Keeps jobs in memory and logs every change to a {@link SegmentJournal}, from which the jobs
+ * are restored on startup. Only a single node may use a journal directory.
+ * <p>
+ * Once the journal holds more than twice as many records as there are jobs, the live jobs
+ * are rewritten to new segments and the old ones deleted.
+ */
+public class JournalScimJobStore implements ScimJobStore, Closeable {
+    private static final Logger log = Logger.getLogger(JournalScimJobStore.class);
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int REWRITE_MIN_RECORDS = 1024;
+
+    private final Map<String, ScimSyncJobQueue> jobs = new ConcurrentHashMap<>();
+    private final SegmentJournal journal;
+
+    public JournalScimJobStore(Path directory, int segmentSize, boolean fsync) throws IOException {
+        journal = new SegmentJournal(directory, segmentSize, fsync);
+        journal.open((type, payload) -> {
+            if (type == PUT) {
+                ScimSyncJobQueue job = ScimJobCodec.decode(new String(payload, StandardCharsets.UTF_8));
+                jobs.put(job.getDedupeKey(), job);
+            } else if (type == DELETE) {
+                jobs.remove(new String(payload, StandardCharsets.UTF_8));
+            }
+        });
+        log.infof("Opened SCIM job journal %s with %d queued jobs", directory, jobs.size());
+    }
+
+    @Override
+    public ScimSyncJobQueue get(String key) {
+        ScimSyncJobQueue job = jobs.get(key);
+        return job != null ? new ScimSyncJobQueue(job) : null;
+    }
+
+    @Override
+    public synchronized boolean putIfAbsent(String key, ScimSyncJobQueue job) {
+        if (jobs.containsKey(key)) {
+            return false;
+        }
+        write(key, job);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean replace(String key, ScimSyncJobQueue expected, ScimSyncJobQueue job) {
+        ScimSyncJobQueue current = jobs.get(key);
+        if (current == null || !current.equals(expected)) {
+            return false;
+        }
+        write(key, job);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(String key, ScimSyncJobQueue expected) {
+        ScimSyncJobQueue current = jobs.get(key);
+        if (current == null || !current.equals(expected)) {
+            return false;
+        }
+
+        append(DELETE, key.getBytes(StandardCharsets.UTF_8));
+        jobs.remove(key);
+        rewriteIfNeeded();
+        return true;
+    }
+
+    @Override
+    public Stream<ScimSyncJobQueue> values() {
+        return jobs.values().stream().map(ScimSyncJobQueue::new);
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    private void write(String key, ScimSyncJobQueue job) {
+        ScimSyncJobQueue stored = new ScimSyncJobQueue(job);
+        stored.setDedupeKey(key);
+
+        append(PUT, ScimJobCodec.encode(stored).getBytes(StandardCharsets.UTF_8));
+        jobs.put(key, stored);
+        rewriteIfNeeded();
+    }
+
+    private void rewriteIfNeeded() {
+        if (journal.getSegmentCount() < 2 || journal.getRecordCount() <= 2L * jobs.size() + REWRITE_MIN_RECORDS) {
+            return;
+        }
+
+        try {
+            journal.rewrite(PUT, jobs.values().stream()
+                    .map(job -> ScimJobCodec.encode(job).getBytes(StandardCharsets.UTF_8))
+                    .collect(Collectors.toList()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void append(byte type, byte[] payload) {
+        try {
+            journal.append(type, payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.jboss.logging.Logger;
+
+import dev.suvera.keycloak.scim2.storage.ex.SyncException;
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.TypedQuery;
+
+/**
+ * Job queue in the SCIM_SYNC_JOB_QUEUE table, written in the transaction of the Keycloak session.
+ */
+public class JpaScimJobQueueBackend implements ScimJobQueueBackend {
+    private static final Logger log = Logger.getLogger(JpaScimJobQueueBackend.class);
+
+    private static final String LOCK_TIMEOUT_HINT = "jakarta.persistence.lock.timeout";
+    /**
+     * Lock timeout that makes Hibernate skip locked rows instead of waiting for them.
+     */
+    private static final int SKIP_LOCKED = -2;
+
+    private static final String INSERT_JOB = "insert into SCIM_SYNC_JOB_QUEUE (ID, USER_ID, GROUP_ID, ROLE_ID, ROLE_NAME, ACTION, "
+            + "REALM_ID, COMPONENT_ID, PROCESSED, CREATED_ON, EXTERNAL_ID, DEDUPE_KEY, NEXT_ATTEMPT_AT) "
+            + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String RETRY_JOB = "update SCIM_SYNC_JOB_QUEUE set PROCESSED = PROCESSED + 1, NEXT_ATTEMPT_AT = ?, "
+            + "LEASE_OWNER = null, LEASE_UNTIL = null where ID = ?";
+
+    private final EntityManager em;
+    private final BiConsumer<ScimSyncJobQueue, Exception> deadLetters;
+    private final String leaseOwner;
+
+    public JpaScimJobQueueBackend(EntityManager em, BiConsumer<ScimSyncJobQueue, Exception> deadLetters, String leaseOwner) {
+        this.em = em;
+        this.deadLetters = deadLetters;
+        this.leaseOwner = leaseOwner;
+    }
+
+    @Override
+    public ScimSyncJobQueue enqueueJob(ScimSyncJobQueue job) {
+        return enqueueJob(job, false);
+    }
+
+    @Override
+    public ScimSyncJobQueue enqueueJobAndResetProcessed(ScimSyncJobQueue job) {
+        return enqueueJob(job, true);
+    }
+
+    @Override
+    public void dequeueJob(ScimSyncJobQueue job) {
+        ScimSyncJobQueue existingJob = em.find(ScimSyncJobQueue.class, job.getId());
+        if (existingJob == null) {
+            log.warnf("Job %s with action %s cannot be removed as it does not exist", job.getId(), job.getAction());
+            return;
+        }
+        log.debugf("Removing job %s with action %s", job.getId(), job.getAction());
+        em.remove(existingJob);
+    }
+
+    @Override
+    public void increaseRetry(ScimSyncJobQueue job, RetryPolicy retryPolicy, Exception error) {
+        // claimed jobs are detached projections, write through the managed row
+        ScimSyncJobQueue managedJob = em.contains(job) ? job : em.find(ScimSyncJobQueue.class, job.getId());
+        if (managedJob == null) {
+            log.warnf("Job %s with action %s cannot be retried as it does not exist", job.getId(), job.getAction());
+            return;
+        }
+
+        int current = managedJob.getProcessed();
+        managedJob.setProcessed(++current);
+        managedJob.setNextAttemptAt(retryPolicy.nextAttemptAt(current));
+        releaseLease(managedJob);
+
+        job.setProcessed(managedJob.getProcessed());
+        job.setNextAttemptAt(managedJob.getNextAttemptAt());
+        releaseLease(job);
+
+        if (job.getNextAttemptAt() == null) {
+            deadLetters.accept(job, error);
+            dequeueJob(job);
+        } else {
+            log.debugf("Increased retry count for job %s with action %s, next attempt at %s", job.getId(), job.getAction(), job.getNextAttemptAt());
+        }
+    }
+
+    /**
+     * Writes back the outcome of a dispatched batch: one delete for finished jobs, one JDBC
+     * batch of updates for retried jobs, each with its own jittered next attempt, and one update
+     * for deferred jobs. Jobs out of attempts are dead-lettered and deleted as well.
+     */
+    @Override
+    public void applyBatch(ScimSyncJobBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // flush pending changes so no stale managed instance is written after the bulk statements
+        em.flush();
+
+        List<String> deleteIds = new ArrayList<>(batch.getCompletedJobIds());
+        Map<String, Date> retries = new LinkedHashMap<>();
+
+        for (ScimSyncJobBatch.Failure failure : batch.getFailures()) {
+            ScimSyncJobQueue job = failure.getJob();
+            int attempts = job.getProcessed() + 1;
+
+            if (failure.getRetryPolicy().isExhausted(attempts)) {
+                job.setProcessed(attempts);
+                deadLetters.accept(job, failure.getError());
+                deleteIds.add(job.getId());
+            } else {
+                retries.put(job.getId(), failure.getRetryPolicy().nextAttemptAt(attempts));
+            }
+        }
+
+        if (!deleteIds.isEmpty()) {
+            int deleted = em.createNamedQuery("deleteJobs")
+                    .setParameter("ids", deleteIds)
+                    .executeUpdate();
+            log.debugf("Removed %d jobs", deleted);
+        }
+
+        if (!retries.isEmpty()) {
+            retryJobs(retries);
+            log.debugf("Increased retry count for %d jobs", retries.size());
+        }
+
+        List<String> deferredIds = batch.getDeferredJobIds();
+        if (!deferredIds.isEmpty()) {
+            int released = em.createNamedQuery("releaseJobs")
+                    .setParameter("ids", deferredIds)
+                    .executeUpdate();
+            log.debugf("Released %d deferred jobs", released);
+        }
+    }
+
+    /**
+     * Locks the scanned rows with SKIP LOCKED where the dialect supports it, otherwise each
+     * row is claimed with a conditional update.
+     */
+    @Override
+    public List<ScimSyncJobQueue> claimPendingJobs(PendingJobCursor cursor, int maxResults, long leaseMillis) {
+        Date now = new Date();
+        Date leaseUntil = new Date(now.getTime() + leaseMillis);
+        boolean skipLocked = supportsSkipLocked();
+
+        TypedQuery<ScimSyncJobQueue> query = em.createNamedQuery("getPendingJobsAfter", ScimSyncJobQueue.class)
+                .setParameter("now", now)
+                .setParameter("createdOn", cursor.getCreatedOn())
+                .setParameter("id", cursor.getId())
+                .setMaxResults(maxResults);
+
+        if (skipLocked) {
+            query.setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    .setHint(LOCK_TIMEOUT_HINT, SKIP_LOCKED);
+        }
+
+        List<ScimSyncJobQueue> candidates = query.getResultList();
+        cursor.setLastPageSize(candidates.size());
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        cursor.advance(candidates.get(candidates.size() - 1));
+
+        if (skipLocked) {
+            // rows are locked by this transaction, compact and lease them all at once
+            candidates = compact(candidates);
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+
+            em.createNamedQuery("leaseJobs")
+                    .setParameter("leaseOwner", leaseOwner)
+                    .setParameter("leaseUntil", leaseUntil)
+                    .setParameter("ids", candidates.stream().map(ScimSyncJobQueue::getId).collect(Collectors.toList()))
+                    .executeUpdate();
+
+            candidates.forEach(job -> setLease(job, leaseUntil));
+            log.debugf("Claimed %d jobs with skip locked", candidates.size());
+            return candidates;
+        }
+
+        // Optimistic fallback: a conditional update wins the row for exactly one node
+        List<ScimSyncJobQueue> claimed = new ArrayList<>();
+        candidates.forEach(job -> {
+            if (claimJob(job, now, leaseUntil)) {
+                claimed.add(job);
+            }
+        });
+
+        log.debugf("Claimed %d of %d jobs with conditional updates", claimed.size(), candidates.size());
+        return compact(claimed);
+    }
+
+    /**
+     * Locks the idle jobs like {@link #claimPendingJobs}, so a drain cannot lease a job while it
+     * is moved to the dead letters.
+     */
+    @Override
+    public int purgeJobs(Date idleBefore, int maxResults) {
+        Date now = new Date();
+        boolean skipLocked = supportsSkipLocked();
+
+        TypedQuery<ScimSyncJobQueue> query = em.createNamedQuery("getIdleJobs", ScimSyncJobQueue.class)
+                .setParameter("before", idleBefore)
+                .setParameter("now", now)
+                .setMaxResults(maxResults);
+
+        if (skipLocked) {
+            query.setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    .setHint(LOCK_TIMEOUT_HINT, SKIP_LOCKED);
+        }
+
+        List<ScimSyncJobQueue> idle = query.getResultList();
+        if (!skipLocked) {
+            Date leaseUntil = new Date(now.getTime() + DEFAULT_LEASE_MILLIS);
+            idle = idle.stream()
+                    .filter(job -> claimJob(job, now, leaseUntil))
+                    .collect(Collectors.toList());
+        }
+
+        SyncException error = new SyncException("Job was not run since %s", idleBefore);
+        idle.forEach(job -> deadLetters.accept(job, error));
+        return deleteJobs(idle.stream().map(ScimSyncJobQueue::getId).collect(Collectors.toList()));
+    }
+
+    private int deleteJobs(List<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return em.createNamedQuery("deleteJobs")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    /**
+     * Deletes jobs of a claimed page that are superseded by other jobs of the same page and
+     * returns the jobs that still need to be dispatched.
+     */
+    private List<ScimSyncJobQueue> compact(List<ScimSyncJobQueue> jobs) {
+        List<ScimSyncJobQueue> superseded = ScimSyncJobCompactor.findSuperseded(jobs);
+        if (superseded.isEmpty()) {
+            return jobs;
+        }
+
+        Set<String> supersededIds = superseded.stream().map(ScimSyncJobQueue::getId).collect(Collectors.toSet());
+        em.createNamedQuery("deleteJobs")
+                .setParameter("ids", supersededIds)
+                .executeUpdate();
+        log.infof("Dropped %d superseded jobs before dispatch", supersededIds.size());
+
+        return jobs.stream()
+                .filter(job -> !supersededIds.contains(job.getId()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean claimJob(ScimSyncJobQueue job, long leaseMillis) {
+        Date now = new Date();
+        return claimJob(job, now, new Date(now.getTime() + leaseMillis));
+    }
+
+    private boolean claimJob(ScimSyncJobQueue job, Date now, Date leaseUntil) {
+        int updated = em.createNamedQuery("claimJob")
+                .setParameter("leaseOwner", leaseOwner)
+                .setParameter("leaseUntil", leaseUntil)
+                .setParameter("id", job.getId())
+                .setParameter("now", now)
+                .executeUpdate();
+
+        if (updated == 0) {
+            return false;
+        }
+
+        setLease(job, leaseUntil);
+        return true;
+    }
+
+    private void setLease(ScimSyncJobQueue job, Date leaseUntil) {
+        job.setLeaseOwner(leaseOwner);
+        job.setLeaseUntil(leaseUntil);
+    }
+
+    private void releaseLease(ScimSyncJobQueue job) {
+        job.setLeaseOwner(null);
+        job.setLeaseUntil(null);
+    }
+
+    // the replacement, Dialect.getLockingSupport(), does not exist before Hibernate 7.1 used by
+    // the older Keycloak versions this provider is built for
+    @SuppressWarnings("deprecation")
+    private boolean supportsSkipLocked() {
+        Dialect dialect = em.getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices()
+                .getDialect();
+
+        return dialect.supportsSkipLocked();
+    }
+
+    private ScimSyncJobQueue enqueueJob(ScimSyncJobQueue job, boolean resetProcessed) {
+        String dedupeKey = job.computeDedupeKey();
+        job.setDedupeKey(dedupeKey);
+        Date now = new Date();
+
+        ScimSyncJobQueue existingJob = findExistingJob(dedupeKey, resetProcessed, now, LockModeType.NONE);
+        if (existingJob == null) {
+            if (insertJob(job)) {
+                log.debugf("Persisting job %s with action %s", job.getId(), job.getAction());
+                return job;
+            }
+
+            // a concurrent transaction committed a job with the same DEDUPE_KEY, the locking
+            // read sees it under repeatable read as well
+            existingJob = findExistingJob(dedupeKey, resetProcessed, now, LockModeType.PESSIMISTIC_READ);
+            if (existingJob == null) {
+                throw new IllegalStateException("Job with DEDUPE_KEY " + dedupeKey + " conflicts with a job that does not exist");
+            }
+        }
+
+        log.debugf("Job %s with action %s already exists%s", job.getId(), job.getAction(), resetProcessed ? ", retry count reset" : "");
+        return existingJob;
+    }
+
+    /**
+     * Finds the job with the DEDUPE_KEY, after making it eligible again with a reset retry count
+     * if asked to. The reset job moves to the end of the queue, so it is ordered after the jobs
+     * enqueued since it was first created.
+     */
+    private ScimSyncJobQueue findExistingJob(String dedupeKey, boolean resetProcessed, Date now, LockModeType lockMode) {
+        if (resetProcessed) {
+            int updated = em.createNamedQuery("resetJobByDedupeKey")
+                    .setParameter("dedupeKey", dedupeKey)
+                    .setParameter("now", now)
+                    .executeUpdate();
+            if (updated == 0) {
+                return null;
+            }
+        }
+
+        ScimSyncJobQueue existingJob = em.createNamedQuery("getJobByDedupeKey", ScimSyncJobQueue.class)
+                .setParameter("dedupeKey", dedupeKey)
+                .setLockMode(lockMode)
+                .getResultList()
+                .stream()
+                .findFirst()
+                .orElse(null);
+
+        if (existingJob != null && resetProcessed) {
+            // keep a possibly cached instance consistent with the bulk update above
+            existingJob.setProcessed(0);
+            existingJob.setNextAttemptAt(now);
+            existingJob.setCreatedOn(now);
+        }
+        return existingJob;
+    }
+
+    /**
+     * Inserts the job within a savepoint. When a concurrent transaction enqueued a job with the
+     * same DEDUPE_KEY, only the savepoint is rolled back instead of the whole Keycloak
+     * transaction failing at flush. The job stays detached, like claimed jobs.
+     *
+     * @return false if a job with the same DEDUPE_KEY exists
+     */
+    private boolean insertJob(ScimSyncJobQueue job) {
+        if (job.getCreatedOn() == null) {
+            job.setCreatedOn(new Date());
+        }
+        if (job.getNextAttemptAt() == null && job.getProcessed() == 0) {
+            job.setNextAttemptAt(job.getCreatedOn());
+        }
+
+        // e.g. a pending delete of a job with the same DEDUPE_KEY must reach the database first
+        em.flush();
+
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            Savepoint savepoint = connection.setSavepoint();
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_JOB)) {
+                statement.setString(1, job.getId());
+                statement.setString(2, job.getUserId());
+                statement.setString(3, job.getGroupId());
+                statement.setString(4, job.getRoleId());
+                statement.setString(5, job.getRoleName());
+                statement.setString(6, job.getAction());
+                statement.setString(7, job.getRealmId());
+                statement.setString(8, job.getComponentId());
+                statement.setInt(9, job.getProcessed());
+                statement.setTimestamp(10, new Timestamp(job.getCreatedOn().getTime()));
+                statement.setString(11, job.getExternalId());
+                statement.setString(12, job.getDedupeKey());
+                statement.setTimestamp(13, job.getNextAttemptAt() != null ? new Timestamp(job.getNextAttemptAt().getTime()) : null);
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                connection.rollback(savepoint);
+                if (isUniqueViolation(e)) {
+                    return false;
+                }
+                throw e;
+            }
+
+            try {
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLFeatureNotSupportedException e) {
+                // e.g. Oracle, the savepoint ends with the transaction
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Schedules the next attempt of every job by id. A single statement would give all jobs of
+     * a failed batch the same jittered time, so they would retry at once.
+     */
+    private void retryJobs(Map<String, Date> nextAttempts) {
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(RETRY_JOB)) {
+                for (Map.Entry<String, Date> retry : nextAttempts.entrySet()) {
+                    statement.setTimestamp(1, new Timestamp(retry.getValue().getTime()));
+                    statement.setString(2, retry.getKey());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+
+    private static boolean isUniqueViolation(SQLException e) {
+        // SQLSTATE class 23 is an integrity constraint violation, the only constraint a new
+        // job can violate is the unique DEDUPE_KEY
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+}
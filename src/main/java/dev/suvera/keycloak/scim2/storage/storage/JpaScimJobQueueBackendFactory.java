@@ -0,0 +1,43 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import org.keycloak.Config.Scope;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+public class JpaScimJobQueueBackendFactory implements ScimJobQueueBackendFactory {
+    public static final String PROVIDER_ID = "jpa";
+
+    @Override
+    public ScimJobQueueBackend create(KeycloakSession session) {
+        return new JpaScimJobQueueBackend(
+                session.getProvider(JpaConnectionProvider.class).getEntityManager(),
+                new ScimSyncDeadLetterManager(session)::deadLetter,
+                ScimJobQueueBackend.LEASE_OWNER);
+    }
+
+    @Override
+    public void init(Scope config) {
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+
+    /**
+     * The highest order makes this the default backend when none is configured.
+     */
+    @Override
+    public int order() {
+        return 1;
+    }
+}
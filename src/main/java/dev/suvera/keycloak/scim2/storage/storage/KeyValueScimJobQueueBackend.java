@@ -0,0 +1,312 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.jboss.logging.Logger;
+
+import dev.suvera.keycloak.scim2.storage.ex.SyncException;
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+
+/**
+ * Job queue on top of a {@link ScimJobStore}. Every write is a compare-and-set on the job's
+ * DEDUPE_KEY, retried while other writers interfere, so leases are exclusive without locks.
+ * <p>
+ * Writes take effect immediately and are not rolled back with the Keycloak transaction.
+ * <p>
+ * A store has no order to read pending jobs in, so the first page of a drain reads and
+ * decodes every stored job once and keeps the pending ones, sorted by (CREATED_ON, ID), in the
+ * cursor. Following pages are taken from that snapshot, a drain of N jobs costs one scan and
+ * O(N log N) for the sort and holds the pending jobs in memory until it ends. Jobs enqueued
+ * meanwhile wait for the next drain, and every job is checked against the store when it is
+ * claimed. The purge scans the store for every chunk. This is fine for queues that are
+ * drained continuously but not for millions of parked jobs, use the JPA backend for those.
+ */
+public class KeyValueScimJobQueueBackend implements ScimJobQueueBackend {
+    private static final Logger log = Logger.getLogger(KeyValueScimJobQueueBackend.class);
+
+    private static final Comparator<ScimSyncJobQueue> QUEUE_ORDER = Comparator
+            .comparing(ScimSyncJobQueue::getCreatedOn)
+            .thenComparing(ScimSyncJobQueue::getId);
+
+    private final ScimJobStore store;
+    private final BiConsumer<ScimSyncJobQueue, Exception> deadLetters;
+    private final String leaseOwner;
+
+    public KeyValueScimJobQueueBackend(ScimJobStore store, BiConsumer<ScimSyncJobQueue, Exception> deadLetters, String leaseOwner) {
+        this.store = store;
+        this.deadLetters = deadLetters;
+        this.leaseOwner = leaseOwner;
+    }
+
+    @Override
+    public ScimSyncJobQueue enqueueJob(ScimSyncJobQueue job) {
+        return enqueueJob(job, false);
+    }
+
+    @Override
+    public ScimSyncJobQueue enqueueJobAndResetProcessed(ScimSyncJobQueue job) {
+        return enqueueJob(job, true);
+    }
+
+    @Override
+    public void dequeueJob(ScimSyncJobQueue job) {
+        String key = job.computeDedupeKey();
+
+        while (true) {
+            ScimSyncJobQueue existingJob = store.get(key);
+            if (existingJob == null || !existingJob.getId().equals(job.getId())) {
+                log.warnf("Job %s with action %s cannot be removed as it does not exist", job.getId(), job.getAction());
+                return;
+            }
+            if (store.remove(key, existingJob)) {
+                log.debugf("Removing job %s with action %s", job.getId(), job.getAction());
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void increaseRetry(ScimSyncJobQueue job, RetryPolicy retryPolicy, Exception error) {
+        int attempts = job.getProcessed() + 1;
+        job.setProcessed(attempts);
+        job.setNextAttemptAt(retryPolicy.nextAttemptAt(attempts));
+        releaseLease(job);
+
+        if (job.getNextAttemptAt() == null) {
+            deadLetters.accept(job, error);
+            dequeueJob(job);
+            return;
+        }
+
+        update(job, stored -> {
+            stored.setProcessed(attempts);
+            stored.setNextAttemptAt(job.getNextAttemptAt());
+            releaseLease(stored);
+            return stored;
+        });
+        log.debugf("Increased retry count for job %s with action %s, next attempt at %s", job.getId(), job.getAction(), job.getNextAttemptAt());
+    }
+
+    /**
+     * Writes are per job anyway, so the batch is applied job by job.
+     */
+    @Override
+    public void applyBatch(ScimSyncJobBatch batch) {
+        batch.getCompletedJobs().forEach(this::dequeueJob);
+        batch.getFailures().forEach(failure -> increaseRetry(failure.getJob(), failure.getRetryPolicy(), failure.getError()));
+        batch.getDeferredJobs().forEach(job -> {
+            releaseLease(job);
+            update(job, stored -> {
+                releaseLease(stored);
+                return stored;
+            });
+        });
+    }
+
+    @Override
+    public List<ScimSyncJobQueue> claimPendingJobs(PendingJobCursor cursor, int maxResults, long leaseMillis) {
+        Date now = new Date();
+        Date leaseUntil = new Date(now.getTime() + leaseMillis);
+
+        Deque<ScimSyncJobQueue> pending = cursor.getSnapshot();
+        if (pending == null) {
+            pending = store.values()
+                    .filter(job -> isPending(job, now))
+                    .sorted(QUEUE_ORDER)
+                    .collect(Collectors.toCollection(ArrayDeque::new));
+            cursor.setSnapshot(pending);
+            log.debugf("Drain snapshot of %d pending jobs", pending.size());
+        }
+
+        List<ScimSyncJobQueue> candidates = new ArrayList<>();
+        while (candidates.size() < maxResults && !pending.isEmpty()) {
+            candidates.add(pending.poll());
+        }
+
+        cursor.setLastPageSize(candidates.size());
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        cursor.advance(candidates.get(candidates.size() - 1));
+
+        // the snapshot may be stale, a job is only claimed while it is still pending
+        List<ScimSyncJobQueue> claimed = new ArrayList<>();
+        candidates.forEach(job -> {
+            ScimSyncJobQueue stored = claim(job, now, leaseUntil, true);
+            if (stored != null) {
+                claimed.add(stored);
+            }
+        });
+
+        log.debugf("Claimed %d of %d jobs", claimed.size(), candidates.size());
+        return compact(claimed);
+    }
+
+    @Override
+    public boolean claimJob(ScimSyncJobQueue job, long leaseMillis) {
+        Date now = new Date();
+        return claimJob(job, now, new Date(now.getTime() + leaseMillis));
+    }
+
+    private boolean claimJob(ScimSyncJobQueue job, Date now, Date leaseUntil) {
+        if (claim(job, now, leaseUntil, false) == null) {
+            return false;
+        }
+
+        setLease(job, leaseUntil);
+        return true;
+    }
+
+    /**
+     * Leases the stored job unless it is leased, or no longer pending if required, and
+     * returns the stored job.
+     */
+    private ScimSyncJobQueue claim(ScimSyncJobQueue job, Date now, Date leaseUntil, boolean requirePending) {
+        return update(job, stored -> {
+            boolean available = requirePending
+                    ? isPending(stored, now)
+                    : stored.getLeaseUntil() == null || stored.getLeaseUntil().before(now);
+            if (!available) {
+                return null;
+            }
+            setLease(stored, leaseUntil);
+            return stored;
+        });
+    }
+
+    /**
+     * A job is removed only if it was not changed meanwhile, e.g. leased by a drain, and is
+     * dead-lettered after it was removed.
+     */
+    @Override
+    public int purgeJobs(Date idleBefore, int maxResults) {
+        Date now = new Date();
+        List<ScimSyncJobQueue> idle = store.values()
+                .filter(job -> isIdle(job, idleBefore, now))
+                .sorted(QUEUE_ORDER)
+                .limit(maxResults)
+                .collect(Collectors.toList());
+
+        SyncException error = new SyncException("Job was not run since %s", idleBefore);
+        int purged = 0;
+        for (ScimSyncJobQueue job : idle) {
+            if (store.remove(job.getDedupeKey(), job)) {
+                deadLetters.accept(job, error);
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    private List<ScimSyncJobQueue> compact(List<ScimSyncJobQueue> jobs) {
+        List<ScimSyncJobQueue> superseded = ScimSyncJobCompactor.findSuperseded(jobs);
+        if (superseded.isEmpty()) {
+            return jobs;
+        }
+
+        superseded.forEach(this::dequeueJob);
+        log.infof("Dropped %d superseded jobs before dispatch", superseded.size());
+
+        List<ScimSyncJobQueue> remaining = new ArrayList<>(jobs);
+        remaining.removeAll(superseded);
+        return remaining;
+    }
+
+    /**
+     * Applies the change to a copy of the stored job until it is written without interference.
+     * Returns null when the job is gone, was replaced by another job with the same DEDUPE_KEY,
+     * or the change returns null.
+     */
+    private ScimSyncJobQueue update(ScimSyncJobQueue job, UnaryOperator<ScimSyncJobQueue> change) {
+        String key = job.computeDedupeKey();
+
+        while (true) {
+            ScimSyncJobQueue existingJob = store.get(key);
+            if (existingJob == null || !existingJob.getId().equals(job.getId())) {
+                return null;
+            }
+
+            ScimSyncJobQueue updated = change.apply(new ScimSyncJobQueue(existingJob));
+            if (updated == null) {
+                return null;
+            }
+            if (store.replace(key, existingJob, updated)) {
+                return updated;
+            }
+        }
+    }
+
+    private ScimSyncJobQueue enqueueJob(ScimSyncJobQueue job, boolean resetProcessed) {
+        String dedupeKey = job.computeDedupeKey();
+        job.setDedupeKey(dedupeKey);
+        if (job.getCreatedOn() == null) {
+            job.setCreatedOn(new Date());
+        }
+        if (job.getNextAttemptAt() == null && job.getProcessed() == 0) {
+            job.setNextAttemptAt(job.getCreatedOn());
+        }
+
+        while (true) {
+            ScimSyncJobQueue existingJob = store.get(dedupeKey);
+
+            if (existingJob == null) {
+                if (store.putIfAbsent(dedupeKey, job)) {
+                    log.debugf("Persisting job %s with action %s", job.getId(), job.getAction());
+                    return job;
+                }
+                continue;
+            }
+
+            if (!resetProcessed) {
+                log.debugf("Job %s with action %s already exists", job.getId(), job.getAction());
+                return existingJob;
+            }
+
+            // like a new job, the reset job moves to the end of the queue
+            Date now = new Date();
+            ScimSyncJobQueue reset = new ScimSyncJobQueue(existingJob);
+            reset.setProcessed(0);
+            reset.setNextAttemptAt(now);
+            reset.setCreatedOn(now);
+            if (store.replace(dedupeKey, existingJob, reset)) {
+                log.debugf("Job %s with action %s already exists, retry count reset", job.getId(), job.getAction());
+                return reset;
+            }
+        }
+    }
+
+    private static boolean isPending(ScimSyncJobQueue job, Date now) {
+        return job.getNextAttemptAt() != null
+                && !job.getNextAttemptAt().after(now)
+                && (job.getLeaseUntil() == null || job.getLeaseUntil().before(now));
+    }
+
+    private static boolean isIdle(ScimSyncJobQueue job, Date before, Date now) {
+        return job.getCreatedOn().before(before)
+                && (job.getNextAttemptAt() == null || job.getNextAttemptAt().before(before))
+                && (job.getLeaseUntil() == null || job.getLeaseUntil().before(now));
+    }
+
+    private void setLease(ScimSyncJobQueue job, Date leaseUntil) {
+        job.setLeaseOwner(leaseOwner);
+        job.setLeaseUntil(leaseUntil);
+    }
+
+    private static void releaseLease(ScimSyncJobQueue job) {
+        job.setLeaseOwner(null);
+        job.setLeaseUntil(null);
+    }
+}
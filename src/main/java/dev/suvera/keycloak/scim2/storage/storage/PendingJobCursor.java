@@ -0,0 +1,41 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.Date;
+import java.util.Deque;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import lombok.Getter;
+
+/**
+ * Keyset position of a pending job drain, ordered by (CREATED_ON, ID). Every row is
+ * visited at most once per drain, so jobs failing again are not re-read and the
+ * drain terminates even when the whole queue fails.
+ */
+@Getter
+public class PendingJobCursor {
+    private Date createdOn = new Date(0);
+    private String id = "";
+    private int lastPageSize = -1;
+    /**
+     * Pending jobs in queue order, taken once per drain by backends that cannot read the
+     * queue in that order, see {@link KeyValueScimJobQueueBackend}.
+     */
+    private Deque<ScimSyncJobQueue> snapshot;
+
+    public void advance(ScimSyncJobQueue job) {
+        createdOn = job.getCreatedOn();
+        id = job.getId();
+    }
+
+    public void setLastPageSize(int lastPageSize) {
+        this.lastPageSize = lastPageSize;
+    }
+
+    public void setSnapshot(Deque<ScimSyncJobQueue> snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public boolean hasMore() {
+        return lastPageSize != 0;
+    }
+}
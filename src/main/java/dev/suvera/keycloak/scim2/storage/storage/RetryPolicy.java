@@ -0,0 +1,95 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jboss.logging.Logger;
+import org.keycloak.component.ComponentModel;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Exponential backoff with jitter for failed SCIM sync jobs, configured per component.
+ */
+@Getter
+@EqualsAndHashCode
+public class RetryPolicy {
+    private static final Logger log = Logger.getLogger(RetryPolicy.class);
+
+    public static final String MAX_ATTEMPTS = "retryMaxAttempts";
+    public static final String BACKOFF_BASE_SECONDS = "retryBackoffBaseSeconds";
+    public static final String BACKOFF_MAX_SECONDS = "retryBackoffMaxSeconds";
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BACKOFF_BASE_SECONDS = 30;
+    public static final long DEFAULT_BACKOFF_MAX_SECONDS = 3600;
+
+    /**
+     * Gives a failed job up right away, for errors that can never succeed.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = Math.max(baseDelayMillis, maxDelayMillis);
+    }
+
+    public static RetryPolicy of(ComponentModel componentModel) {
+        if (componentModel == null) {
+            return new RetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_BASE_SECONDS * 1000,
+                    DEFAULT_BACKOFF_MAX_SECONDS * 1000);
+        }
+
+        return new RetryPolicy(
+                (int) getLong(componentModel, MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS),
+                getLong(componentModel, BACKOFF_BASE_SECONDS, DEFAULT_BACKOFF_BASE_SECONDS) * 1000,
+                getLong(componentModel, BACKOFF_MAX_SECONDS, DEFAULT_BACKOFF_MAX_SECONDS) * 1000);
+    }
+
+    public boolean isExhausted(int failedAttempts) {
+        return failedAttempts >= maxAttempts;
+    }
+
+    /**
+     * Returns when the job should be attempted again after the given number of failed
+     * attempts, or null if no further attempt should be made.
+     */
+    public Date nextAttemptAt(int failedAttempts) {
+        if (isExhausted(failedAttempts)) {
+            return null;
+        }
+
+        int exponent = Math.min(Math.max(failedAttempts - 1, 0), 30);
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << exponent);
+        if (delay <= 0) {
+            delay = maxDelayMillis;
+        }
+
+        // equal jitter: keep half of the delay, randomize the other half
+        long half = delay / 2;
+        long jittered = half + ThreadLocalRandom.current().nextLong(half + 1);
+
+        return new Date(System.currentTimeMillis() + jittered);
+    }
+
+    private static long getLong(ComponentModel componentModel, String name, long defaultValue) {
+        String value = componentModel.get(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+
+        try {
+            long parsed = Long.parseLong(value.trim());
+            return parsed >= 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            log.warnf("Invalid value %s for %s on component %s, using %d", value, name, componentModel.getId(), defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -5,13 +5,18 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Array;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import jakarta.mail.Session;
@@ -26,10 +31,10 @@ import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.storage.user.SynchronizationResult;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableSet;
 
 import dev.suvera.scim2.client.Scim2Client;
+import dev.suvera.scim2.client.EndpointLimiter;
 import dev.suvera.scim2.client.Scim2ClientBuilder;
 import dev.suvera.scim2.schema.ScimConstant;
 import dev.suvera.scim2.schema.data.ExtensionRecord;
@@ -46,6 +51,7 @@ import dev.suvera.scim2.schema.data.user.UserRecord.UserPhoneNumber;
 import dev.suvera.scim2.schema.data.user.UserRecord.UserRole;
 import dev.suvera.scim2.schema.enums.PatchOp;
 import dev.suvera.scim2.schema.ex.ScimException;
+import dev.suvera.scim2.schema.util.ScimJson;
 
 /**
  * author: suvera
@@ -54,9 +60,45 @@ import dev.suvera.scim2.schema.ex.ScimException;
 @SuppressWarnings({ "FieldCanBeLocal", "unused" })
 public class ScimClient2 {
     private static final Logger log = Logger.getLogger(ScimClient2.class);
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static final String MAX_CONCURRENCY = "maxConcurrency";
+    public static final String RATE_LIMIT_PER_SECOND = "rateLimitPerSecond";
+    public static final String MAX_RETRY_AFTER_SECONDS = "maxRetryAfterSeconds";
+    public static final String CIRCUIT_FAILURE_THRESHOLD = "circuitFailureThreshold";
+    public static final String CIRCUIT_OPEN_SECONDS = "circuitOpenSeconds";
+    public static final String HTTP_MAX_IDLE_CONNECTIONS = "httpMaxIdleConnections";
+    public static final String HTTP_KEEP_ALIVE_SECONDS = "httpKeepAliveSeconds";
+    public static final String HTTP_MAX_REQUESTS_PER_HOST = "httpMaxRequestsPerHost";
+    public static final String HTTP_CONNECT_TIMEOUT_SECONDS = "httpConnectTimeoutSeconds";
+    public static final String HTTP_READ_TIMEOUT_SECONDS = "httpReadTimeoutSeconds";
+    public static final String HTTP_WRITE_TIMEOUT_SECONDS = "httpWriteTimeoutSeconds";
+    public static final String HTTP_CALL_TIMEOUT_SECONDS = "httpCallTimeoutSeconds";
+    public static final String HTTP2 = "http2";
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    public static final int DEFAULT_RATE_LIMIT_PER_SECOND = 0;
+    public static final int DEFAULT_MAX_RETRY_AFTER_SECONDS = 60;
+    public static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+    public static final int DEFAULT_CIRCUIT_OPEN_SECONDS = 30;
+    public static final int DEFAULT_HTTP_MAX_IDLE_CONNECTIONS = 16;
+    public static final int DEFAULT_HTTP_KEEP_ALIVE_SECONDS = 300;
+    public static final int DEFAULT_HTTP_MAX_REQUESTS_PER_HOST = 0;
+    public static final int DEFAULT_HTTP_CONNECT_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_HTTP_READ_TIMEOUT_SECONDS = 60;
+    public static final int DEFAULT_HTTP_WRITE_TIMEOUT_SECONDS = 60;
+    public static final int DEFAULT_HTTP_CALL_TIMEOUT_SECONDS = 120;
+
+    /**
+     * Settings that need a new HTTP client when they change.
+     */
+    private static final List<String> CLIENT_SETTINGS = Arrays.asList(
+            MAX_CONCURRENCY, RATE_LIMIT_PER_SECOND, MAX_RETRY_AFTER_SECONDS,
+            HTTP_MAX_IDLE_CONNECTIONS, HTTP_KEEP_ALIVE_SECONDS, HTTP_MAX_REQUESTS_PER_HOST,
+            HTTP_CONNECT_TIMEOUT_SECONDS, HTTP_READ_TIMEOUT_SECONDS, HTTP_WRITE_TIMEOUT_SECONDS,
+            HTTP_CALL_TIMEOUT_SECONDS, HTTP2);
 
     private final ComponentModel componentModel;
+    private final EndpointLimiter limiter;
     private Scim2Client scimService = null;
     private ScimException scimException = null;
 
@@ -99,8 +141,26 @@ public class ScimClient2 {
             schemasJson = schemasJson.replaceAll("\\{SCIM_BASE}", endPoint);
         }
 
+        this.limiter = new EndpointLimiter(
+                getInt(componentModel, MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY),
+                getInt(componentModel, RATE_LIMIT_PER_SECOND, DEFAULT_RATE_LIMIT_PER_SECOND),
+                getInt(componentModel, MAX_RETRY_AFTER_SECONDS, DEFAULT_MAX_RETRY_AFTER_SECONDS) * 1000L);
+
         Scim2ClientBuilder builder = new Scim2ClientBuilder(endPoint)
                 .allowSelfSigned(true)
+                .limiter(limiter)
+                .circuitBreaker(ScimClient2Factory.getCircuitBreaker(componentModel))
+                .connectionPool(
+                        getInt(componentModel, HTTP_MAX_IDLE_CONNECTIONS, DEFAULT_HTTP_MAX_IDLE_CONNECTIONS),
+                        Math.max(1, getInt(componentModel, HTTP_KEEP_ALIVE_SECONDS, DEFAULT_HTTP_KEEP_ALIVE_SECONDS)),
+                        TimeUnit.SECONDS)
+                .maxRequestsPerHost(getInt(componentModel, HTTP_MAX_REQUESTS_PER_HOST, DEFAULT_HTTP_MAX_REQUESTS_PER_HOST))
+                .timeouts(
+                        Duration.ofSeconds(getInt(componentModel, HTTP_CONNECT_TIMEOUT_SECONDS, DEFAULT_HTTP_CONNECT_TIMEOUT_SECONDS)),
+                        Duration.ofSeconds(getInt(componentModel, HTTP_READ_TIMEOUT_SECONDS, DEFAULT_HTTP_READ_TIMEOUT_SECONDS)),
+                        Duration.ofSeconds(getInt(componentModel, HTTP_WRITE_TIMEOUT_SECONDS, DEFAULT_HTTP_WRITE_TIMEOUT_SECONDS)),
+                        Duration.ofSeconds(getInt(componentModel, HTTP_CALL_TIMEOUT_SECONDS, DEFAULT_HTTP_CALL_TIMEOUT_SECONDS)))
+                .http2(Boolean.parseBoolean(componentModel.get(HTTP2, "true")))
                 .resourceTypes(resourceTypesJson)
                 .schemas(schemasJson)
                 .clientSecret(authorityUrl, username, password, clientId, clientSecret);
@@ -128,7 +188,55 @@ public class ScimClient2 {
         String clientId = componentModel.get("clientId");
         String clientSecret = componentModel.get("clientSecret");
 
-        return Objects.hash(endPoint, authorityUrl, username, password, clientId, clientSecret);
+        return Objects.hash(endPoint, authorityUrl, username, password, clientId, clientSecret,
+                CLIENT_SETTINGS.stream().map(componentModel::get).collect(Collectors.toList()));
+    }
+
+    public static int getCircuitFailureThreshold(ComponentModel componentModel) {
+        return getInt(componentModel, CIRCUIT_FAILURE_THRESHOLD, DEFAULT_CIRCUIT_FAILURE_THRESHOLD);
+    }
+
+    public static int getCircuitOpenSeconds(ComponentModel componentModel) {
+        return getInt(componentModel, CIRCUIT_OPEN_SECONDS, DEFAULT_CIRCUIT_OPEN_SECONDS);
+    }
+
+    /**
+     * Returns whether the endpoint answers its ServiceProviderConfig without a server error.
+     */
+    public boolean probe() {
+        return scimService != null && scimService.probe();
+    }
+
+    /**
+     * Releases the connections and threads of the HTTP client.
+     */
+    public void close() {
+        if (scimService != null) {
+            scimService.close();
+        }
+    }
+
+    public ComponentModel getComponentModel() {
+        return componentModel;
+    }
+
+    public EndpointLimiter getLimiter() {
+        return limiter;
+    }
+
+    private static int getInt(ComponentModel componentModel, String name, int defaultValue) {
+        String value = componentModel.get(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed >= 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            log.warnf("Invalid value %s for %s on component %s, using %d", value, name, componentModel.getId(), defaultValue);
+            return defaultValue;
+        }
     }
 
     private String inputStreamToString(InputStream is) {
@@ -202,12 +310,6 @@ public class ScimClient2 {
 
         List<UserRecord.UserGroup> groups = new ArrayList<>();
         userAdapter.getScimGroupsStream().forEach(groupAdapter -> {
-            try {
-                createOrUpdateGroup(groupAdapter);
-            } catch (ScimException e) {
-                log.error("", e);
-            }
-
             UserRecord.UserGroup grp = new UserRecord.UserGroup();
             grp.setDisplay(groupAdapter.getGroupModel().getName());
             grp.setValue(groupAdapter.getGroupModel().getId());
@@ -243,9 +345,8 @@ public class ScimClient2 {
         if (isAttributeNotNull(userModel, "addresses_primary")) {
             List<UserRecord.UserAddress> addresses = new ArrayList<>();
             try {
-                UserRecord.UserAddress addr = objectMapper.readValue(
-                        userModel.getFirstAttribute("addresses_primary"),
-                        UserRecord.UserAddress.class);
+                UserRecord.UserAddress addr = ScimJson.reader(UserRecord.UserAddress.class).readValue(
+                        userModel.getFirstAttribute("addresses_primary"));
                 addresses.add(addr);
             } catch (JsonProcessingException e) {
                 log.error("", e);
@@ -259,9 +360,8 @@ public class ScimClient2 {
         if (isAttributeNotNull(userModel, "phoneNumbers_primary")) {
             List<UserRecord.UserPhoneNumber> phones = new ArrayList<>();
             try {
-                UserRecord.UserPhoneNumber phone = objectMapper.readValue(
-                        userModel.getFirstAttribute("phoneNumbers_primary"),
-                        UserRecord.UserPhoneNumber.class);
+                UserRecord.UserPhoneNumber phone = ScimJson.reader(UserRecord.UserPhoneNumber.class).readValue(
+                        userModel.getFirstAttribute("phoneNumbers_primary"));
                 phones.add(phone);
             } catch (JsonProcessingException e) {
                 log.error("", e);
@@ -277,15 +377,45 @@ public class ScimClient2 {
         user.setEntitlements(Collections.emptyList());
         user.setX509Certificates(Collections.emptyList());
 
-        try {
-            log.info("Scim User: " + new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(user));
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+        if (log.isDebugEnabled()) {
+            try {
+                log.debug("Scim User: " + ScimJson.PRETTY_WRITER.writeValueAsString(user));
+            } catch (JsonProcessingException e) {
+                log.debug("Could not write SCIM user", e);
+            }
         }
 
         return user;
     }
 
+    /**
+     * Makes sure the groups of the user exist in the SCIM service provider before the user
+     * is pushed.
+     */
+    private void createOrUpdateGroups(ScimUserAdapter userAdapter) {
+        userAdapter.getScimGroupsStream().forEach(groupAdapter -> {
+            try {
+                createOrUpdateGroup(groupAdapter);
+            } catch (ScimException e) {
+                log.error("", e);
+            }
+        });
+    }
+
+    /**
+     * SHA-256 of the user record written by {@link ScimJson#CANONICAL_WRITER}, so equal
+     * records always have the same hash.
+     */
+    static String hashUser(UserRecord user) {
+        try {
+            byte[] json = ScimJson.CANONICAL_WRITER.writeValueAsBytes(user);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            log.warnf(e, "Could not hash user record %s", user.getUserName());
+            return null;
+        }
+    }
+
     private boolean isAttributeNotNull(UserModel userModel, String name) {
         String val = userModel.getFirstAttribute(name);
 
@@ -301,36 +431,79 @@ public class ScimClient2 {
             return;
         }
 
-        UserRecord scimUser = buildScimUser(userModel);
-        UserRecord createdUser = scimService.createUser(scimUser);
+        createOrUpdateGroups(userModel);
+        createUser(userModel, buildScimUser(userModel));
+    }
+
+    /**
+     * Creates the user and returns the created record, or the existing record that was
+     * updated instead when the user already exists.
+     */
+    private UserRecord createUser(ScimUserAdapter userModel, UserRecord scimUser) throws ScimException {
+        String hash = hashUser(scimUser);
+        UserRecord createdUser;
+        try {
+            createdUser = scimService.createUser(scimUser);
+        } catch (ScimException e) {
+            UserRecord existingUser = e.isConflict() ? findUserByUsername(userModel.getUsername()) : null;
+            if (existingUser == null) {
+                throw e;
+            }
+            log.infof("User %s already exists in the SCIM service provider, updating it instead.", userModel.getUsername());
+            updateUser(userModel, existingUser, scimUser);
+            return existingUser;
+        }
 
         userModel.setExternalId(createdUser.getId());
+        userModel.setSyncHash(hash);
         log.infof("User record with username %s and id %s successfully synced to SCIM service provider.", createdUser.getUserName(), createdUser.getId());
+        return createdUser;
     }
 
-    public void createOrUpdateUser(ScimUserAdapter scimUser, SynchronizationResult result) throws ScimException {
+    /**
+     * Creates the user, or updates it when the SCIM service provider already has it. Unless
+     * {@code force} is set, nothing is sent when the record equals the one last pushed.
+     *
+     * @return the user record of the SCIM service provider before the update, or the created
+     * record; null when nothing was sent
+     */
+    public UserRecord createOrUpdateUser(ScimUserAdapter scimUser, SynchronizationResult result, boolean force) throws ScimException {
         if (scimService == null) {
-            return;
+            return null;
+        }
+
+        UserRecord record = buildScimUser(scimUser);
+        String hash = hashUser(record);
+        if (!force && hash != null && scimUser.getExternalId() != null && hash.equals(scimUser.getSyncHash())) {
+            log.debugf("User %s has not changed since the last push, skipping it.", scimUser.getUsername());
+            return null;
         }
 
+        createOrUpdateGroups(scimUser);
+
         UserRecord user = null;
         try {
             user = findUserByUsername(scimUser.getUsername());
         } catch (ScimException e) {
+            // creating the user while the lookup fails temporarily could duplicate it
+            if (e.getStatus() != 0 && e.isRetryable()) {
+                throw e;
+            }
             user = null;
         }
 
         if (user == null) {
-            createUser(scimUser);
+            user = createUser(scimUser, record);
             if (result != null) {
                 result.increaseAdded();
             }
         } else {
-            updateUser(scimUser, user);
+            updateUser(scimUser, user, record);
             if (result != null) {
                 result.increaseUpdated();
             }
         }
+        return user;
     }
 
     public UserRecord findUserByUsername(String username) throws ScimException {
@@ -343,15 +516,18 @@ public class ScimClient2 {
         return users.getResources().stream().findFirst().orElse(null);
     }
 
-    private void updateUser(ScimUserAdapter userModel, UserRecord originalUser) throws ScimException {
-        UserRecord scimUser = buildScimUser(userModel);
+    private void updateUser(ScimUserAdapter userModel, UserRecord originalUser, UserRecord scimUser) throws ScimException {
+        String hash = hashUser(scimUser);
         scimUser.setId(originalUser.getId());
 
         PatchRequest<UserRecord> patchRequest = UserRecordPatchBuilder.buildPatchRequest(scimUser, originalUser);
 
         PatchResponse<UserRecord> response = scimService.patchUser(scimUser.getId(), patchRequest);
 
-        userModel.setExternalId(response.getResource().getId());
+        // a 204 has no resource
+        UserRecord patched = response.getResource();
+        userModel.setExternalId(patched != null && patched.getId() != null ? patched.getId() : originalUser.getId());
+        userModel.setSyncHash(hash);
     }
 
     public void updateUser(ScimUserAdapter userModel) throws ScimException {
@@ -364,7 +540,8 @@ public class ScimClient2 {
             return;
         }
 
-        updateUser(userModel, user);
+        createOrUpdateGroups(userModel);
+        updateUser(userModel, user, buildScimUser(userModel));
     }
 
     public UserRecord getUser(ScimUserAdapter userModel) throws ScimException {
@@ -416,8 +593,7 @@ public class ScimClient2 {
             
             String roleJson = null;
             try {
-                ObjectMapper objectMapper = new ObjectMapper();
-                roleJson = objectMapper.writeValueAsString(role);
+                roleJson = ScimJson.WRITER.writeValueAsString(role);
             } catch (JsonProcessingException e) {
                 log.error("JSON processing error", e);
             }
@@ -445,6 +621,9 @@ public class ScimClient2 {
         try {
             originalGroupRecord = findGroupByGroupName(scimGroup.getGroupModel().getName());
         } catch (ScimException e) {
+            if (e.getStatus() != 0 && e.isRetryable()) {
+                throw e;
+            }
             originalGroupRecord = null;
         }
 
@@ -479,7 +658,16 @@ public class ScimClient2 {
         GroupRecord groupRecord = new GroupRecord();
         groupRecord.setDisplayName(groupModel.getGroupModel().getName());
         
-        groupRecord = scimService.createGroup(groupRecord);
+        try {
+            groupRecord = scimService.createGroup(groupRecord);
+        } catch (ScimException e) {
+            GroupRecord existingGroup = e.isConflict() ? findGroupByGroupName(groupRecord.getDisplayName()) : null;
+            if (existingGroup == null) {
+                throw e;
+            }
+            log.infof("Group %s already exists in the SCIM service provider, linking it.", groupRecord.getDisplayName());
+            groupRecord = existingGroup;
+        }
 
         groupModel.setExternalId(groupRecord.getId());
     }
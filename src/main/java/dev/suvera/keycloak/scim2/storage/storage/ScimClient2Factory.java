@@ -1,6 +1,8 @@
 package dev.suvera.keycloak.scim2.storage.storage;
 
+import dev.suvera.scim2.client.CircuitBreaker;
 import dev.suvera.scim2.schema.ex.ScimException;
+import org.jboss.logging.Logger;
 import org.keycloak.component.ComponentModel;
 
 import java.util.Map;
@@ -12,15 +14,24 @@ import java.util.concurrent.ConcurrentHashMap;
  * date: 10/16/2020 9:31 AM
  */
 public class ScimClient2Factory {
+    private static final Logger log = Logger.getLogger(ScimClient2Factory.class);
+
     public static final Map<String, ScimClient2> instances = new ConcurrentHashMap<>();
 
+    /**
+     * Circuit breakers by component id. They outlive the clients, which are recreated when
+     * the component's connection settings change.
+     */
+    public static final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
     public static synchronized ScimClient2 getClient(ComponentModel componentModel) throws ScimException {
         String id = componentModel.getId();
         ScimClient2 scimClient = instances.get(id);
 
         if (scimClient != null && scimClient.clientHashCode != ScimClient2.getClientHashFromModel(componentModel)) {
-            scimClient = null;
             instances.remove(id);
+            scimClient.close();
+            scimClient = null;
         }
 
         if (scimClient == null) {
@@ -32,4 +43,41 @@ public class ScimClient2Factory {
         }
         return scimClient;
     }
-}
+
+    public static CircuitBreaker getCircuitBreaker(ComponentModel componentModel) {
+        int failureThreshold = ScimClient2.getCircuitFailureThreshold(componentModel);
+        long openMillis = ScimClient2.getCircuitOpenSeconds(componentModel) * 1000L;
+
+        return circuitBreakers.compute(componentModel.getId(), (id, breaker) ->
+                breaker != null && breaker.getFailureThreshold() == failureThreshold && breaker.getOpenMillis() == openMillis
+                        ? breaker
+                        : new CircuitBreaker(failureThreshold, openMillis));
+    }
+
+    /**
+     * Returns false while the circuit breaker of the component is open. Once the open time
+     * has passed, one caller probes the endpoint to decide whether it closes again.
+     */
+    public static boolean isAvailable(ComponentModel componentModel) {
+        CircuitBreaker breaker = getCircuitBreaker(componentModel);
+        if (breaker.tryStartProbe()) {
+            boolean healthy;
+            try {
+                healthy = getClient(componentModel).probe();
+            } catch (ScimException | RuntimeException e) {
+                log.debugf("Probe of component %s failed: %s", componentModel.getId(), e.getMessage());
+                healthy = false;
+            }
+
+            if (healthy) {
+                breaker.onSuccess();
+                log.infof("SCIM endpoint of component %s is healthy again, circuit closed", componentModel.getId());
+            } else {
+                breaker.onFailure();
+                log.infof("SCIM endpoint of component %s is still unhealthy, circuit open until %d",
+                        componentModel.getId(), breaker.getOpenUntil());
+            }
+        }
+        return !breaker.isOpen();
+    }
+}
\ No newline at end of file
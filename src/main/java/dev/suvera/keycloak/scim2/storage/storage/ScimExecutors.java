@@ -0,0 +1,41 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Executors for background SCIM work. Callers bound their own concurrency, the executor
+ * only picks the kind of thread.
+ */
+final class ScimExecutors {
+    private static final Logger log = Logger.getLogger(ScimExecutors.class);
+
+    private ScimExecutors() {
+    }
+
+    /**
+     * Returns a virtual thread per task executor when the runtime has them, otherwise a pool
+     * of {@code threads} daemon threads named after {@code name}.
+     */
+    static ExecutorService create(String name, int threads) {
+        if (Runtime.version().feature() >= 21) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads are not available, using a thread pool", e);
+            }
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, threadFactory);
+    }
+}
@@ -1,5 +1,9 @@
 package dev.suvera.keycloak.scim2.storage.storage;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
 
@@ -70,6 +74,25 @@ public class ScimGroupAdapter {
         }
     }
 
+    /**
+     * Ids of the groups of the component that were synced to the given external ids.
+     */
+    public static List<String> getGroupIdsByExternalIds(KeycloakSession session, String realmId, String storageProviderId, Collection<String> externalIds) {
+        if (externalIds.isEmpty()) {
+            return List.of();
+        }
+
+        return session.getProvider(JpaConnectionProvider.class).getEntityManager()
+                .createNamedQuery("getFederatedGroupAttributesByValues", FederatedGroupAttributeEntity.class)
+                .setParameter("realmId", realmId)
+                .setParameter("storageProviderId", storageProviderId)
+                .setParameter("name", GROUP_EXTERNAL_ID_ATTRIBUTE)
+                .setParameter("values", externalIds)
+                .getResultStream()
+                .map(FederatedGroupAttributeEntity::getGroupId)
+                .collect(Collectors.toList());
+    }
+
     public void removeExternalId() {
         FederatedGroupAttributeEntity entity = getFederateGroupAttributeEntity();
 
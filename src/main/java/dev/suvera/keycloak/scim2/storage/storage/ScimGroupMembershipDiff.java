@@ -0,0 +1,53 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import dev.suvera.scim2.schema.data.user.UserRecord;
+import lombok.Value;
+
+/**
+ * Difference between the groups a user is a member of in Keycloak and the groups the SCIM
+ * service provider lists for it.
+ */
+@Value
+public class ScimGroupMembershipDiff {
+    /** Keycloak ids of the groups the SCIM service provider does not list for the user. */
+    List<String> joins;
+    /** External ids of the groups the SCIM service provider lists but the user is not a member of. */
+    Set<String> leaves;
+
+    /**
+     * @param localGroups external id of every group the user is a member of, by Keycloak group
+     *                    id. The external id is null for a group not synced yet.
+     * @param remoteGroups groups of the user as returned by the SCIM service provider, only the
+     *                     direct memberships are compared
+     */
+    public static ScimGroupMembershipDiff of(Map<String, String> localGroups, List<UserRecord.UserGroup> remoteGroups) {
+        Set<String> leaves = new LinkedHashSet<>();
+        if (remoteGroups != null) {
+            remoteGroups.stream()
+                    .filter(group -> group.getType() == null || "direct".equals(group.getType()))
+                    .map(UserRecord.UserGroup::getValue)
+                    .filter(Objects::nonNull)
+                    .forEach(leaves::add);
+        }
+
+        List<String> joins = new ArrayList<>();
+        localGroups.forEach((groupId, externalId) -> {
+            if (externalId == null || !leaves.remove(externalId)) {
+                joins.add(groupId);
+            }
+        });
+
+        return new ScimGroupMembershipDiff(joins, leaves);
+    }
+
+    public boolean isEmpty() {
+        return joins.isEmpty() && leaves.isEmpty();
+    }
+}
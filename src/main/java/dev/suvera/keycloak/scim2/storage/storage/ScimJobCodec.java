@@ -0,0 +1,41 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+
+/**
+ * JSON form of queued jobs for the non relational backends. Properties are sorted, so equal
+ * jobs always encode to equal strings and can be compared in their encoded form.
+ */
+final class ScimJobCodec {
+    private static final ObjectMapper mapper = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private ScimJobCodec() {
+    }
+
+    static String encode(ScimSyncJobQueue job) {
+        try {
+            return mapper.writeValueAsString(job);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static ScimSyncJobQueue decode(String json) {
+        try {
+            return mapper.readValue(json, ScimSyncJobQueue.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
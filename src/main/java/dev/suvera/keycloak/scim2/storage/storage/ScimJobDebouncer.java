@@ -0,0 +1,170 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.jboss.logging.Logger;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.storage.UserStorageProvider;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+
+/**
+ * Holds committed jobs in memory until their user, or group for group jobs, has been quiet
+ * for the quiet period of its component, then hands all jobs of that entity to the dispatcher
+ * at once. An update of a user, its role mappings and its group memberships therefore end up
+ * in one dispatch. There repeated jobs collapse into one, and jobs superseded by others of the
+ * burst are dropped before anything is sent: the user update carries the role assignments,
+ * so only the update and the membership changes reach the SCIM service provider. See
+ * {@link ScimSyncJobCompactor} and {@link ScimSyncJob#executeEnqueued(List, org.keycloak.storage.user.SynchronizationResult)}.
+ * <p>
+ * A burst is flushed at the latest {@link #MAX_WAIT_FACTOR} quiet periods after its first job,
+ * so a constantly changing entity is still synced. The buffer is not durable: the queue rows
+ * of buffered jobs stay until they run, and are picked up by the next synchronization when
+ * the node goes away.
+ */
+public class ScimJobDebouncer {
+    private static final Logger log = Logger.getLogger(ScimJobDebouncer.class);
+
+    public static final String QUIET_PERIOD_MILLIS = "debounceQuietPeriodMillis";
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 500;
+
+    private static final long MAX_WAIT_FACTOR = 10;
+    private static final long TICK_MILLIS = 50;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private final Consumer<List<ScimSyncJobQueue>> dispatcher;
+    private final HashedWheelTimer timer = new HashedWheelTimer("scim-debouncer", TICK_MILLIS, TICKS_PER_WHEEL);
+    private final Map<String, Burst> bursts = new ConcurrentHashMap<>();
+
+    public ScimJobDebouncer(Consumer<List<ScimSyncJobQueue>> dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Returns the debouncer of the SCIM storage provider factory.
+     */
+    public static ScimJobDebouncer of(KeycloakSession session) {
+        SkssStorageProviderFactory factory = (SkssStorageProviderFactory) session.getKeycloakSessionFactory()
+                .getProviderFactory(UserStorageProvider.class, SkssStorageProviderFactory.PROVIDER_ID);
+        return factory.getDebouncer();
+    }
+
+    /**
+     * Quiet period of the component in milliseconds, 0 dispatches jobs right away.
+     */
+    public static long quietPeriodOf(ComponentModel componentModel) {
+        String value = componentModel != null ? componentModel.get(QUIET_PERIOD_MILLIS) : null;
+        if (value == null || value.isBlank()) {
+            return DEFAULT_QUIET_PERIOD_MILLIS;
+        }
+
+        try {
+            long parsed = Long.parseLong(value.trim());
+            return parsed >= 0 ? parsed : DEFAULT_QUIET_PERIOD_MILLIS;
+        } catch (NumberFormatException e) {
+            log.warnf("Invalid value %s for %s on component %s, using %d", value, QUIET_PERIOD_MILLIS,
+                    componentModel.getId(), DEFAULT_QUIET_PERIOD_MILLIS);
+            return DEFAULT_QUIET_PERIOD_MILLIS;
+        }
+    }
+
+    public void add(List<ScimJobOutbox.Entry> entries) {
+        List<ScimSyncJobQueue> immediate = new ArrayList<>();
+
+        for (ScimJobOutbox.Entry entry : entries) {
+            if (entry.getQuietPeriodMillis() <= 0) {
+                immediate.add(entry.getJob());
+            } else {
+                buffer(entry.getJob(), entry.getQuietPeriodMillis());
+            }
+        }
+
+        if (!immediate.isEmpty()) {
+            dispatcher.accept(immediate);
+        }
+    }
+
+    public int getBuffered() {
+        return bursts.values().stream().mapToInt(Burst::size).sum();
+    }
+
+    public void shutdown() {
+        timer.stop();
+    }
+
+    private void buffer(ScimSyncJobQueue job, long quietPeriodMillis) {
+        long now = System.currentTimeMillis();
+
+        bursts.compute(entityKey(job), (k, burst) -> {
+            if (burst == null) {
+                burst = new Burst(now + MAX_WAIT_FACTOR * quietPeriodMillis);
+                timer.schedule(() -> expire(k), quietPeriodMillis);
+            }
+            burst.add(job, now + quietPeriodMillis);
+            return burst;
+        });
+    }
+
+    /**
+     * Key of the entity the job changes: the user, also for its memberships and role mappings,
+     * or the group for jobs without a user.
+     */
+    private static String entityKey(ScimSyncJobQueue job) {
+        String entity = job.getUserId() != null ? "user:" + job.getUserId() : "group:" + job.getGroupId();
+        return job.getRealmId() + ":" + job.getComponentId() + ":" + entity;
+    }
+
+    private void expire(String key) {
+        long now = System.currentTimeMillis();
+        List<List<ScimSyncJobQueue>> flushed = new ArrayList<>(1);
+
+        bursts.computeIfPresent(key, (k, burst) -> {
+            long due = Math.min(burst.quietUntil, burst.flushBy);
+            if (due > now) {
+                timer.schedule(() -> expire(k), due - now);
+                return burst;
+            }
+            flushed.add(burst.jobs());
+            return null;
+        });
+
+        for (List<ScimSyncJobQueue> jobs : flushed) {
+            log.debugf("Dispatching %d debounced SCIM jobs of %s", jobs.size(), key);
+            dispatcher.accept(jobs);
+        }
+    }
+
+    /**
+     * Jobs of one entity in the order of their last change, one per dedupe key.
+     */
+    private static class Burst {
+        private final Map<String, ScimSyncJobQueue> jobs = new LinkedHashMap<>();
+        private final long flushBy;
+        private long quietUntil;
+
+        private Burst(long flushBy) {
+            this.flushBy = flushBy;
+        }
+
+        private synchronized void add(ScimSyncJobQueue job, long quietUntil) {
+            String dedupeKey = job.getDedupeKey() != null ? job.getDedupeKey() : job.computeDedupeKey();
+            jobs.remove(dedupeKey);
+            jobs.put(dedupeKey, job);
+            this.quietUntil = Math.max(this.quietUntil, quietUntil);
+        }
+
+        private synchronized int size() {
+            return jobs.size();
+        }
+
+        private synchronized List<ScimSyncJobQueue> jobs() {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+}
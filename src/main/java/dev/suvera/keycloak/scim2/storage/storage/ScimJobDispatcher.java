@@ -0,0 +1,193 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.storage.UserStorageProvider;
+import org.keycloak.storage.user.SynchronizationResult;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+
+/**
+ * Runs enqueued jobs in the background. Jobs are striped over lanes by user id, or group id
+ * for group jobs, and every lane runs its jobs one after the other, so the jobs of one entity
+ * keep their order while unrelated entities are synced in parallel. The jobs of one entity
+ * handed over together run in one transaction. At most
+ * {@code concurrency} jobs run at a time, on virtual threads when the runtime has them.
+ * <p>
+ * The dispatcher holds at most {@code maxPending} jobs. Jobs that do not fit stay in the
+ * queue and are picked up by the next synchronization.
+ */
+public class ScimJobDispatcher {
+    private static final Logger log = Logger.getLogger(ScimJobDispatcher.class);
+
+    public static final int DEFAULT_CONCURRENCY = 16;
+    public static final int DEFAULT_LANES = 64;
+    public static final int DEFAULT_MAX_PENDING = 10000;
+
+    /**
+     * Jobs a lane runs before it yields its permit to other lanes.
+     */
+    private static final int JOBS_PER_TURN = 32;
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final int concurrency;
+    private final int maxPending;
+    private final Lane[] lanes;
+    private final Semaphore permits;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ExecutorService executor;
+
+    public ScimJobDispatcher(KeycloakSessionFactory sessionFactory, int concurrency, int laneCount, int maxPending) {
+        this.sessionFactory = sessionFactory;
+        this.concurrency = concurrency;
+        this.maxPending = maxPending;
+        this.permits = new Semaphore(concurrency);
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane();
+        }
+        this.executor = ScimExecutors.create("scim-dispatcher", concurrency);
+    }
+
+    /**
+     * Returns the dispatcher of the SCIM storage provider factory.
+     */
+    public static ScimJobDispatcher of(KeycloakSession session) {
+        SkssStorageProviderFactory factory = (SkssStorageProviderFactory) session.getKeycloakSessionFactory()
+                .getProviderFactory(UserStorageProvider.class, SkssStorageProviderFactory.PROVIDER_ID);
+        return factory.getDispatcher();
+    }
+
+    public void dispatch(List<ScimSyncJobQueue> jobs) {
+        Map<String, List<ScimSyncJobQueue>> entities = new LinkedHashMap<>();
+        for (ScimSyncJobQueue job : jobs) {
+            entities.computeIfAbsent(keyOf(job), k -> new ArrayList<>()).add(job);
+        }
+
+        entities.forEach((key, entityJobs) -> {
+            if (pending.addAndGet(entityJobs.size()) > maxPending) {
+                pending.addAndGet(-entityJobs.size());
+                log.debugf("Dispatcher is full, %d jobs of %s are left to the next sync", entityJobs.size(), key);
+                return;
+            }
+            laneOf(key).add(entityJobs);
+        });
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getRunning() {
+        return concurrency - permits.availablePermits();
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Depth of every non empty lane by lane index.
+     */
+    public Map<Integer, Integer> getLaneDepths() {
+        Map<Integer, Integer> depths = new LinkedHashMap<>();
+        for (int i = 0; i < lanes.length; i++) {
+            int depth = lanes[i].depth.get();
+            if (depth > 0) {
+                depths.put(i, depth);
+            }
+        }
+        return depths;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static String keyOf(ScimSyncJobQueue job) {
+        return job.getUserId() != null ? job.getUserId() : job.getGroupId();
+    }
+
+    private Lane laneOf(String key) {
+        int hash = key != null ? key.hashCode() : 0;
+        return lanes[Math.floorMod(hash, lanes.length)];
+    }
+
+    private void execute(List<ScimSyncJobQueue> jobs) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> new ScimSyncJob(session).executeEnqueued(
+                    jobs.stream().map(ScimSyncJobQueue::new).collect(Collectors.toList()), new SynchronizationResult()));
+        } catch (RuntimeException e) {
+            log.errorf(e, "Dispatching %d jobs of %s failed", jobs.size(), keyOf(jobs.get(0)));
+        }
+    }
+
+    /**
+     * Job groups of one stripe. A lane is scheduled on the executor at most once at a time,
+     * which keeps its jobs in order.
+     */
+    private class Lane implements Runnable {
+        private final Queue<List<ScimSyncJobQueue>> jobs = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void add(List<ScimSyncJobQueue> entityJobs) {
+            jobs.add(entityJobs);
+            depth.addAndGet(entityJobs.size());
+            schedule();
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                log.debugf("Dispatcher is shut down, %d jobs are left to the next sync", depth.get());
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                scheduled.set(false);
+                return;
+            }
+
+            try {
+                List<ScimSyncJobQueue> entityJobs;
+                for (int i = 0; i < JOBS_PER_TURN && (entityJobs = jobs.poll()) != null; i += entityJobs.size()) {
+                    depth.addAndGet(-entityJobs.size());
+                    pending.addAndGet(-entityJobs.size());
+                    execute(entityJobs);
+                }
+            } finally {
+                permits.release();
+                scheduled.set(false);
+                if (!jobs.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakTransactionManager;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Collects the jobs enqueued in a Keycloak transaction and hands them, with the quiet period
+ * of their component, to the debouncer in one batch after the transaction commits. When it
+ * rolls back nothing is dispatched. The rows of the JPA queue are rolled back with it, and jobs
+ * of backends that are not transactional are only written to the queue after the commit.
+ */
+public class ScimJobOutbox extends AbstractKeycloakTransaction {
+    private static final Logger log = Logger.getLogger(ScimJobOutbox.class);
+    private static final String SESSION_ATTRIBUTE = ScimJobOutbox.class.getName();
+
+    private final List<Pending> jobs = new ArrayList<>();
+    private final Consumer<List<Entry>> dispatcher;
+
+    private ScimJobOutbox(Consumer<List<Entry>> dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Enqueues the job and, if asked to, dispatches it after the session's transaction commits.
+     * A transactional backend writes the job right away, in the transaction. Other backends
+     * would keep the job of a rolled back transaction, so it is only written once the
+     * transaction commits.
+     */
+    public static void enqueue(KeycloakSession session, ScimJobQueueBackend queue, ScimSyncJobQueue job,
+            long quietPeriodMillis, boolean dispatch, Consumer<List<Entry>> dispatcher) {
+        if (queue.isTransactional()) {
+            ScimSyncJobQueue queued = new ScimSyncJobQueue(queue.enqueueJobAndResetProcessed(job));
+            add(session, new Pending(queued, quietPeriodMillis, null, dispatch), dispatcher);
+        } else {
+            add(session, new Pending(job, quietPeriodMillis, queue, dispatch), dispatcher);
+        }
+    }
+
+    /**
+     * Adds the job to the outbox of the session's transaction, or handles it right away
+     * when the session has no active transaction.
+     */
+    private static void add(KeycloakSession session, Pending pending, Consumer<List<Entry>> dispatcher) {
+        KeycloakTransactionManager transactionManager = session.getTransactionManager();
+        if (!transactionManager.isActive()) {
+            flush(List.of(pending), dispatcher);
+            return;
+        }
+
+        ScimJobOutbox outbox = session.getAttribute(SESSION_ATTRIBUTE, ScimJobOutbox.class);
+        if (outbox == null) {
+            outbox = new ScimJobOutbox(dispatcher);
+            session.setAttribute(SESSION_ATTRIBUTE, outbox);
+            transactionManager.enlistAfterCompletion(outbox);
+        }
+        outbox.jobs.add(pending);
+    }
+
+    @Override
+    protected void commitImpl() {
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        log.debugf("Dispatching %d SCIM jobs of a committed transaction", jobs.size());
+        flush(new ArrayList<>(jobs), dispatcher);
+        jobs.clear();
+    }
+
+    @Override
+    protected void rollbackImpl() {
+        log.debugf("Discarding %d SCIM jobs of a rolled back transaction", jobs.size());
+        jobs.clear();
+    }
+
+    private static void flush(List<Pending> jobs, Consumer<List<Entry>> dispatcher) {
+        List<Entry> entries = new ArrayList<>();
+        for (Pending pending : jobs) {
+            ScimSyncJobQueue job = pending.job;
+            if (pending.queue != null) {
+                try {
+                    job = new ScimSyncJobQueue(pending.queue.enqueueJobAndResetProcessed(job));
+                } catch (RuntimeException e) {
+                    log.errorf(e, "Could not enqueue job %s with action %s of a committed transaction, it is synced by the next full sync",
+                            job.getId(), job.getAction());
+                    continue;
+                }
+            }
+            if (pending.dispatch) {
+                entries.add(new Entry(job, pending.quietPeriodMillis));
+            }
+        }
+
+        if (!entries.isEmpty()) {
+            dispatcher.accept(entries);
+        }
+    }
+
+    @Value
+    public static class Entry {
+        ScimSyncJobQueue job;
+        long quietPeriodMillis;
+    }
+
+    /**
+     * Job of the outbox, with the backend to write it to after the commit unless it is
+     * written already.
+     */
+    @AllArgsConstructor
+    private static class Pending {
+        private final ScimSyncJobQueue job;
+        private final long quietPeriodMillis;
+        private final ScimJobQueueBackend queue;
+        private final boolean dispatch;
+    }
+}
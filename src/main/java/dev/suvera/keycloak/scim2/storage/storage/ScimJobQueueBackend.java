@@ -0,0 +1,86 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.Date;
+import java.util.List;
+
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.provider.Provider;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+
+/**
+ * Storage of pending SCIM sync jobs. Jobs are identified by their DEDUPE_KEY, a backend holds
+ * at most one job per key.
+ * <p>
+ * Implementations are selected with the {@code scim-job-queue-backend} SPI, the JPA backend is
+ * the default. See {@link ScimSyncJobQueueManagerFactory}.
+ */
+public interface ScimJobQueueBackend extends Provider {
+    /**
+     * Identifies this node as the owner of the job leases it takes.
+     */
+    String LEASE_OWNER = KeycloakModelUtils.generateId();
+    long DEFAULT_LEASE_MILLIS = 5 * 60 * 1000L;
+
+    /**
+     * Stores the job unless a job with the same DEDUPE_KEY exists.
+     *
+     * @return the stored job, either the given one or the existing one
+     */
+    ScimSyncJobQueue enqueueJob(ScimSyncJobQueue job);
+
+    /**
+     * Like {@link #enqueueJob(ScimSyncJobQueue)}, but makes an existing job immediately
+     * eligible again with a reset retry count, and moves it to the end of the queue as if it
+     * was enqueued just now.
+     */
+    ScimSyncJobQueue enqueueJobAndResetProcessed(ScimSyncJobQueue job);
+
+    void dequeueJob(ScimSyncJobQueue job);
+
+    /**
+     * Schedules the next attempt of a failed job, or dead-letters and removes it once the
+     * retry policy is exhausted.
+     */
+    void increaseRetry(ScimSyncJobQueue job, RetryPolicy retryPolicy, Exception error);
+
+    /**
+     * Writes back the outcome of a dispatched batch.
+     */
+    void applyBatch(ScimSyncJobBatch batch);
+
+    /**
+     * Leases up to maxResults pending jobs after the cursor to this node and advances the cursor
+     * past every scanned job. Jobs leased by other nodes are skipped, and a lease that is not
+     * released in time simply expires and the job becomes claimable again.
+     */
+    List<ScimSyncJobQueue> claimPendingJobs(PendingJobCursor cursor, int maxResults, long leaseMillis);
+
+    /**
+     * Takes the lease of a single job. Succeeds only when the job is not leased or its lease
+     * expired, also when this node holds the lease: the drain and the dispatcher of a node must
+     * not run the same job twice.
+     */
+    boolean claimJob(ScimSyncJobQueue job, long leaseMillis);
+
+    /**
+     * Moves up to maxResults jobs to the dead letters that were neither enqueued nor due for an
+     * attempt since the given date. Leased jobs are left alone, they may be running right now.
+     *
+     * @return number of purged jobs
+     */
+    int purgeJobs(Date idleBefore, int maxResults);
+
+    /**
+     * Whether writes take part in the Keycloak transaction and are rolled back with it. Jobs of
+     * backends that are not transactional are only enqueued after the transaction commits, see
+     * {@link ScimJobOutbox}.
+     */
+    default boolean isTransactional() {
+        return true;
+    }
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,6 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import org.keycloak.provider.ProviderFactory;
+
+public interface ScimJobQueueBackendFactory extends ProviderFactory<ScimJobQueueBackend> {
+}
@@ -0,0 +1,30 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import org.keycloak.provider.Provider;
+import org.keycloak.provider.ProviderFactory;
+import org.keycloak.provider.Spi;
+
+public class ScimJobQueueBackendSpi implements Spi {
+    public static final String NAME = "scim-job-queue-backend";
+
+    @Override
+    public boolean isInternal() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Class<? extends Provider> getProviderClass() {
+        return ScimJobQueueBackend.class;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Class<? extends ProviderFactory> getProviderFactoryClass() {
+        return ScimJobQueueBackendFactory.class;
+    }
+}
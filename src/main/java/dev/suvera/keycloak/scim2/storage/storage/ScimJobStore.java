@@ -0,0 +1,22 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.stream.Stream;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+
+/**
+ * Key-value storage of jobs by DEDUPE_KEY used by {@link KeyValueScimJobQueueBackend}. Writes
+ * are conditional on the current value so concurrent writers never overwrite each other, and
+ * all returned jobs are detached copies.
+ */
+public interface ScimJobStore {
+    ScimSyncJobQueue get(String key);
+
+    boolean putIfAbsent(String key, ScimSyncJobQueue job);
+
+    boolean replace(String key, ScimSyncJobQueue expected, ScimSyncJobQueue job);
+
+    boolean remove(String key, ScimSyncJobQueue expected);
+
+    Stream<ScimSyncJobQueue> values();
+}
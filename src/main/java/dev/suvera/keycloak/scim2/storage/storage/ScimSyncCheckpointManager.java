@@ -0,0 +1,110 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.Date;
+import java.util.List;
+
+import org.jboss.logging.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.storage.user.SynchronizationResult;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncCheckpoint;
+import jakarta.persistence.EntityManager;
+
+public class ScimSyncCheckpointManager {
+    private static final Logger log = Logger.getLogger(ScimSyncCheckpointManager.class);
+
+    private final EntityManager em;
+
+    public ScimSyncCheckpointManager(KeycloakSession session) {
+        this(session.getProvider(JpaConnectionProvider.class).getEntityManager());
+    }
+
+    public ScimSyncCheckpointManager(EntityManager em) {
+        this.em = em;
+    }
+
+    public ScimSyncCheckpoint getCheckpoint(String componentId) {
+        return em.find(ScimSyncCheckpoint.class, componentId);
+    }
+
+    public List<ScimSyncCheckpoint> getCheckpoints(String realmId) {
+        return em.createNamedQuery("getSyncCheckpointsByRealm", ScimSyncCheckpoint.class)
+                .setParameter("realmId", realmId)
+                .getResultList();
+    }
+
+    /**
+     * Continues the unfinished full sync of the component, or starts a new one when there is
+     * none.
+     */
+    public ScimSyncCheckpoint start(String realmId, String componentId, long total) {
+        Date now = new Date();
+        ScimSyncCheckpoint checkpoint = getCheckpoint(componentId);
+
+        if (checkpoint != null && checkpoint.getFinishedOn() == null) {
+            log.infof("Resuming synchronization of component %s after user %s, %d users processed",
+                    componentId, checkpoint.getLastUserId(), checkpoint.getProcessed());
+        } else {
+            if (checkpoint == null) {
+                checkpoint = new ScimSyncCheckpoint();
+                checkpoint.setComponentId(componentId);
+            }
+            checkpoint.setLastUserId(null);
+            checkpoint.setProcessed(0);
+            checkpoint.setAdded(0);
+            checkpoint.setUpdated(0);
+            checkpoint.setFailed(0);
+            checkpoint.setStartedOn(now);
+            checkpoint.setFinishedOn(null);
+        }
+
+        checkpoint.setRealmId(realmId);
+        checkpoint.setTotal(total);
+        checkpoint.setResumedOn(now);
+        checkpoint.setResumedProcessed(checkpoint.getProcessed());
+        checkpoint.setUpdatedOn(now);
+        if (!em.contains(checkpoint)) {
+            // the insert takes the state at persist time, so only persist a complete checkpoint
+            em.persist(checkpoint);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Moves the checkpoint past {@code lastUserId} after all users up to it have been synced.
+     */
+    public void advance(String componentId, String lastUserId, int processed, SynchronizationResult result) {
+        ScimSyncCheckpoint checkpoint = getCheckpoint(componentId);
+        if (checkpoint == null) {
+            return;
+        }
+
+        checkpoint.setLastUserId(lastUserId);
+        checkpoint.setProcessed(checkpoint.getProcessed() + processed);
+        checkpoint.setAdded(checkpoint.getAdded() + result.getAdded());
+        checkpoint.setUpdated(checkpoint.getUpdated() + result.getUpdated());
+        checkpoint.setFailed(checkpoint.getFailed() + result.getFailed());
+        checkpoint.setUpdatedOn(new Date());
+    }
+
+    public void finish(String componentId) {
+        ScimSyncCheckpoint checkpoint = getCheckpoint(componentId);
+        if (checkpoint != null) {
+            checkpoint.setFinishedOn(new Date());
+            checkpoint.setUpdatedOn(checkpoint.getFinishedOn());
+        }
+    }
+
+    /**
+     * Discards the checkpoint, so the next full sync starts from the first user.
+     */
+    public boolean delete(String componentId) {
+        ScimSyncCheckpoint checkpoint = getCheckpoint(componentId);
+        if (checkpoint == null) {
+            return false;
+        }
+        em.remove(checkpoint);
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jboss.logging.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncDeadLetter;
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import dev.suvera.scim2.schema.ex.ScimException;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+public class ScimSyncDeadLetterManager {
+    private static final Logger log = Logger.getLogger(ScimSyncDeadLetterManager.class);
+    private static final int MAX_ERROR_LENGTH = 1024;
+    private static final int REPLAY_BATCH_SIZE = 500;
+
+    private final EntityManager em;
+    private final KeycloakSession session;
+
+    public ScimSyncDeadLetterManager(KeycloakSession session) {
+        this.session = session;
+        em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    }
+
+    public ScimSyncDeadLetter deadLetter(ScimSyncJobQueue job, Exception error) {
+        ScimSyncDeadLetter deadLetter = new ScimSyncDeadLetter(job);
+
+        if (error != null) {
+            deadLetter.setLastError(StringUtils.abbreviate(error.getMessage(), MAX_ERROR_LENGTH));
+        }
+        if (error instanceof ScimException) {
+            // the response code, the SCIM error body may be missing or carry no status
+            int status = ((ScimException) error).getStatus();
+            deadLetter.setHttpStatus(status > 0 ? status : null);
+        }
+
+        log.warnf("Moving job %s with action %s to dead letters after %d attempts", job.getId(), job.getAction(), job.getProcessed());
+        em.persist(deadLetter);
+        return deadLetter;
+    }
+
+    public List<ScimSyncDeadLetter> getDeadLetters(Filter filter, int first, int max) {
+        return createQuery(filter)
+                .setFirstResult(first)
+                .setMaxResults(max)
+                .getResultList();
+    }
+
+    /**
+     * Re-enqueues all dead letters matching the filter as fresh jobs and removes them. Every
+     * batch is replayed in its own transaction, and its jobs are dispatched once it commits.
+     *
+     * @return number of replayed dead letters
+     */
+    public int replay(Filter filter) {
+        KeycloakSessionFactory sessionFactory = session.getKeycloakSessionFactory();
+        AtomicInteger batchSize = new AtomicInteger();
+        int replayed = 0;
+
+        do {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory,
+                    s -> batchSize.set(new ScimSyncDeadLetterManager(s).replayBatch(filter)));
+            replayed += batchSize.get();
+        } while (batchSize.get() == REPLAY_BATCH_SIZE);
+
+        log.infof("Replayed %d dead letters", replayed);
+        return replayed;
+    }
+
+    private int replayBatch(Filter filter) {
+        ScimJobQueueBackend queueManager = ScimSyncJobQueueManagerFactory.create(session);
+        ScimJobDebouncer debouncer = ScimJobDebouncer.of(session);
+        List<ScimSyncDeadLetter> batch = createQuery(filter).setMaxResults(REPLAY_BATCH_SIZE).getResultList();
+
+        for (ScimSyncDeadLetter deadLetter : batch) {
+            ScimJobOutbox.enqueue(session, queueManager, deadLetter.toJob(KeycloakModelUtils.generateId()),
+                    0, true, debouncer::add);
+            em.remove(deadLetter);
+        }
+        return batch.size();
+    }
+
+    /**
+     * Deletes up to maxResults dead letters last attempted before the given date.
+     *
+     * @return number of deleted dead letters
+     */
+    public int purge(Date lastAttemptBefore, int maxResults) {
+        List<String> ids = em.createQuery("select d.id from ScimSyncDeadLetter d where d.lastAttemptAt < :before", String.class)
+                .setParameter("before", lastAttemptBefore)
+                .setMaxResults(maxResults)
+                .getResultList();
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return em.createQuery("delete from ScimSyncDeadLetter d where d.id in :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    private TypedQuery<ScimSyncDeadLetter> createQuery(Filter filter) {
+        StringBuilder jpql = new StringBuilder("select d from ScimSyncDeadLetter d where d.realmId = :realmId");
+        Map<String, Object> params = new HashMap<>();
+        params.put("realmId", filter.getRealmId());
+
+        if (filter.getAction() != null) {
+            jpql.append(" and d.action = :action");
+            params.put("action", filter.getAction());
+        }
+        if (filter.getComponentId() != null) {
+            jpql.append(" and d.componentId = :componentId");
+            params.put("componentId", filter.getComponentId());
+        }
+        if (filter.getFrom() != null) {
+            jpql.append(" and d.lastAttemptAt >= :from");
+            params.put("from", filter.getFrom());
+        }
+        if (filter.getTo() != null) {
+            jpql.append(" and d.lastAttemptAt < :to");
+            params.put("to", filter.getTo());
+        }
+        jpql.append(" order by d.lastAttemptAt asc");
+
+        TypedQuery<ScimSyncDeadLetter> query = em.createQuery(jpql.toString(), ScimSyncDeadLetter.class);
+        params.forEach(query::setParameter);
+        return query;
+    }
+
+    @lombok.Value
+    public static class Filter {
+        String realmId;
+        String action;
+        String componentId;
+        Date from;
+        Date to;
+    }
+}
@@ -1,10 +1,18 @@
 package dev.suvera.keycloak.scim2.storage.storage;
 
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.hibernate.Session;
 import org.jboss.logging.Logger;
 import org.keycloak.component.ComponentModel;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
 import org.keycloak.models.GroupModel;
 import org.keycloak.models.RoleModel;
 import org.keycloak.models.KeycloakSession;
@@ -15,6 +23,7 @@ import org.keycloak.storage.user.SynchronizationResult;
 
 import dev.suvera.keycloak.scim2.storage.ex.SyncException;
 import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import dev.suvera.scim2.schema.data.user.UserRecord;
 import dev.suvera.scim2.schema.ex.ScimException;
 
 /**
@@ -38,7 +47,8 @@ public class ScimSyncJob {
     private static final Logger log = Logger.getLogger(ScimSyncJob.class);
     private KeycloakSession session;
     private JobEnqueuer enquerer;
-    private ScimSyncJobQueueManager queueManager;
+    private ScimJobQueueBackend queueManager;
+    private boolean forcePush;
 
     public ScimSyncJob(KeycloakSession session) {
         this.session = session;
@@ -46,6 +56,14 @@ public class ScimSyncJob {
         queueManager = ScimSyncJobQueueManagerFactory.create(session);
     }
 
+    /**
+     * Pushes users even when their record equals the one last pushed, to reconcile changes
+     * made on the SCIM service provider side.
+     */
+    public void setForcePush(boolean forcePush) {
+        this.forcePush = forcePush;
+    }
+
     public void execute(ScimSyncJobQueue job) {
         execute(job, null);
     }
@@ -58,25 +76,175 @@ public class ScimSyncJob {
     public void execute(ScimSyncJobModel jobModel, SynchronizationResult result) {
         ScimSyncJobQueue job = queueManager.enqueueJob(jobModel.getJob());
         jobModel.setJob(job);
+
+        executeClaimed(jobModel, result);
+    }
+
+    /**
+     * Runs a job that is already in the queue, e.g. one handed over by {@link ScimJobOutbox}.
+     * The job is skipped when it was dequeued meanwhile or is leased by another node.
+     */
+    public void executeEnqueued(ScimSyncJobQueue job, SynchronizationResult result) {
+        executeClaimed(new ScimSyncJobModel(job), result);
+    }
+
+    /**
+     * Runs queued jobs of one entity in the order they were changed. Jobs superseded by later
+     * ones of the list are dequeued without running.
+     */
+    public void executeEnqueued(List<ScimSyncJobQueue> jobs, SynchronizationResult result) {
+        Set<String> supersededIds = new HashSet<>();
+        for (ScimSyncJobQueue job : ScimSyncJobCompactor.findSuperseded(jobs)) {
+            queueManager.dequeueJob(job);
+            supersededIds.add(job.getId());
+        }
+        if (!supersededIds.isEmpty()) {
+            log.debugf("Dropped %d superseded jobs before dispatch", supersededIds.size());
+        }
+
+        for (ScimSyncJobQueue job : jobs) {
+            if (!supersededIds.contains(job.getId())) {
+                executeEnqueued(job, result);
+            }
+        }
+    }
+
+    private void executeClaimed(ScimSyncJobModel jobModel, SynchronizationResult result) {
+        ScimSyncJobQueue job = jobModel.getJob();
+
+        if (!isTargetAvailable(job)) {
+            log.debugf("SCIM endpoint of job %s is unavailable, leaving the job queued", job.getId());
+            return;
+        }
+
+        if (!queueManager.claimJob(job, ScimJobQueueBackend.DEFAULT_LEASE_MILLIS)) {
+            log.infof("SCIM sync job %s with action %s is leased by another node or no longer queued, skipping", job.getId(), job.getAction());
+            return;
+        }
+
         jobModel.getMissingKeycloakModelsFromSession(session);
 
+        Exception error = dispatch(jobModel, result);
+        if (error == null) {
+            queueManager.dequeueJob(job);
+        } else {
+            queueManager.increaseRetry(job, getRetryPolicy(jobModel, error), error);
+        }
+    }
+
+    /**
+     * Dispatches already claimed jobs in the current transaction and writes their outcomes
+     * back to the queue with bulk statements.
+     */
+    public void executeBatch(List<ScimSyncJobQueue> jobs, SynchronizationResult result) {
+        enableJdbcBatching(jobs.size());
+        ScimSyncJobBatch batch = new ScimSyncJobBatch();
+
+        for (ScimSyncJobQueue job : jobs) {
+            if (!isTargetAvailable(job)) {
+                batch.defer(job);
+                continue;
+            }
+
+            ScimSyncJobModel jobModel = new ScimSyncJobModel(job);
+            jobModel.getMissingKeycloakModelsFromSession(session);
+
+            Exception error = dispatch(jobModel, result);
+            if (error == null) {
+                batch.complete(job);
+            } else {
+                batch.fail(job, getRetryPolicy(jobModel, error), error);
+            }
+        }
+
+        queueManager.applyBatch(batch);
+    }
+
+    /**
+     * Checks the circuit breaker of the job's SCIM component before anything is loaded or
+     * sent, so jobs for an unhealthy endpoint stay queued without using up attempts.
+     */
+    private boolean isTargetAvailable(ScimSyncJobQueue job) {
+        RealmModel realm = session.realms().getRealm(job.getRealmId());
+        ComponentModel component = realm != null ? ComponentModelUtils.getScimComponent(realm, job.getComponentId()) : null;
+        return component == null || ScimClient2Factory.isAvailable(component);
+    }
+
+    /**
+     * Lets Hibernate group the inserts and updates of this session into JDBC batches.
+     */
+    private void enableJdbcBatching(int batchSize) {
+        session.getProvider(JpaConnectionProvider.class).getEntityManager()
+                .unwrap(Session.class)
+                .setJdbcBatchSize(batchSize);
+    }
+
+    /**
+     * Runs the job and returns the SCIM error if it failed, or null if the job is finished,
+     * either successfully or because it can never succeed. A request that did not reach the
+     * service provider is retried right away once.
+     */
+    private Exception dispatch(ScimSyncJobModel jobModel, SynchronizationResult result) {
+        ScimSyncJobQueue job = jobModel.getJob();
+
         try {
             log.infof("Executing SCIM sync job %s with action %s", job.getId(), job.getAction());
-            executeJob(jobModel, result);
-            queueManager.dequeueJob(job);
+            try {
+                executeJob(jobModel, result);
+            } catch (ScimException e) {
+                if (!isConnectFailure(e)) {
+                    throw e;
+                }
+                log.infof("SCIM sync job %s with action %s could not connect to the service provider, retrying right away", job.getId(), job.getAction());
+                executeJob(jobModel, result);
+            }
         } catch (ScimException e) {
-            queueManager.increaseRetry(job);
             log.error(e.getMessage(), e);
             if (result != null) {
                 result.increaseFailed();
             }
+            return e;
         } catch (SyncException e) {
-            queueManager.dequeueJob(job);
-            log.info(e.getMessage(), e);
-        } catch (Exception e) {
-            queueManager.dequeueJob(job);
             log.info(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            log.errorf(e, "SCIM sync job %s with action %s failed unexpectedly", job.getId(), job.getAction());
+            if (result != null) {
+                result.increaseFailed();
+            }
+            return e;
         }
+
+        return null;
+    }
+
+    /**
+     * Whether the request failed before it was sent, so sending it again cannot apply it
+     * twice. Timeouts and other transport failures are left to the backoff: a POST that timed
+     * out may well have been processed.
+     */
+    private static boolean isConnectFailure(ScimException e) {
+        Throwable cause = e.getCause();
+        return e.getStatus() == 0 && (cause instanceof ConnectException || cause instanceof UnknownHostException);
+    }
+
+    /**
+     * Errors that are not retryable, e.g. a 400 for an invalid resource, are dead-lettered
+     * right away. Transient ones are retried with the backoff of the component.
+     */
+    private RetryPolicy getRetryPolicy(ScimSyncJobModel jobModel, Exception error) {
+        if (error instanceof ScimException && !((ScimException) error).isRetryable()) {
+            return RetryPolicy.NONE;
+        }
+
+        ComponentModel componentModel = jobModel.getComponent();
+        RealmModel realmModel = jobModel.getRealm();
+        String componentId = jobModel.getJob().getComponentId();
+
+        if (componentModel == null && realmModel != null && componentId != null) {
+            componentModel = realmModel.getComponent(componentId);
+        }
+
+        return RetryPolicy.of(componentModel);
     }
 
     private void executeJob(ScimSyncJobModel jobModel, SynchronizationResult result) throws ScimException, SyncException {
@@ -192,19 +360,38 @@ public class ScimSyncJob {
         ScimClient2 scimClient = ScimClient2Factory.getClient(componentModel);
 
         ScimUserAdapter scimUserAdapter = new ScimUserAdapter(session, realmModel, componentModel, userModel);
-        scimClient.createOrUpdateUser(scimUserAdapter, result);
+        UserRecord remoteUser = scimClient.createOrUpdateUser(scimUserAdapter, result, forcePush);
 
-        if (result != null) {
-            List<GroupModel> userGroups = userModel.getGroupsStream().collect(Collectors.toList());
-            
-            session.groups().getGroupsStream(realmModel).forEach(group -> {
-                if (userGroups.stream().anyMatch(userGroup -> userGroup.getId().equals(group.getId()))) {
-                    enquerer.enqueueGroupJoinJob(realmModel.getId(), group.getId(), userModel.getId());
-                } else {
-                    enquerer.enqueueGroupLeaveJob(realmModel.getId(), group.getId(), userModel.getId());
-                }
-            });
+        if (result != null && remoteUser != null) {
+            syncGroupMemberships(realmModel, componentModel, scimUserAdapter, remoteUser);
+        }
+    }
+
+    /**
+     * Enqueues a join for every top-level group of the user the SCIM service provider does not
+     * list for it, and a leave for every synced group it lists but the user is no longer a member
+     * of. Subgroups are not synced, so they are left out of the comparison.
+     */
+    private void syncGroupMemberships(RealmModel realmModel, ComponentModel componentModel, ScimUserAdapter userAdapter, UserRecord remoteUser) {
+        String realmId = realmModel.getId();
+        String userId = userAdapter.getLocalUserModel().getId();
+
+        Map<String, String> localGroups = new LinkedHashMap<>();
+        userAdapter.getScimGroupsStream()
+                .forEach(group -> localGroups.put(group.getGroupModel().getId(), group.getExternalId()));
+
+        ScimGroupMembershipDiff diff = ScimGroupMembershipDiff.of(localGroups, remoteUser.getGroups());
+        if (diff.isEmpty()) {
+            return;
         }
+
+        diff.getJoins().forEach(groupId -> enquerer.enqueueGroupJoinJob(realmId, groupId, userId));
+        List<String> leaves = ScimGroupAdapter.getGroupIdsByExternalIds(session, realmId,
+                componentModel.getId(), diff.getLeaves());
+        leaves.forEach(groupId -> enquerer.enqueueGroupLeaveJob(realmId, groupId, userId));
+
+        log.debugf("User %s differs from the SCIM service provider in %d joins and %d leaves", userId,
+                diff.getJoins().size(), leaves.size());
     }
 
     private void deleteUser(ScimSyncJobModel jobModel, SynchronizationResult result) throws ScimException, SyncException {
@@ -0,0 +1,55 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import lombok.Getter;
+import lombok.Value;
+
+/**
+ * Outcomes of jobs dispatched in one transaction, written back to the queue together
+ * by {@link ScimJobQueueBackend#applyBatch(ScimSyncJobBatch)}.
+ */
+@Getter
+public class ScimSyncJobBatch {
+    private final List<ScimSyncJobQueue> completedJobs = new ArrayList<>();
+    private final List<Failure> failures = new ArrayList<>();
+    private final List<ScimSyncJobQueue> deferredJobs = new ArrayList<>();
+
+    public void complete(ScimSyncJobQueue job) {
+        completedJobs.add(job);
+    }
+
+    public List<String> getCompletedJobIds() {
+        return completedJobs.stream().map(ScimSyncJobQueue::getId).collect(Collectors.toList());
+    }
+
+    public void fail(ScimSyncJobQueue job, RetryPolicy retryPolicy, Exception error) {
+        failures.add(new Failure(job, retryPolicy, error));
+    }
+
+    /**
+     * Releases the job for a later attempt without counting one, e.g. while its endpoint is
+     * unavailable.
+     */
+    public void defer(ScimSyncJobQueue job) {
+        deferredJobs.add(job);
+    }
+
+    public List<String> getDeferredJobIds() {
+        return deferredJobs.stream().map(ScimSyncJobQueue::getId).collect(Collectors.toList());
+    }
+
+    public boolean isEmpty() {
+        return completedJobs.isEmpty() && failures.isEmpty() && deferredJobs.isEmpty();
+    }
+
+    @Value
+    public static class Failure {
+        ScimSyncJobQueue job;
+        RetryPolicy retryPolicy;
+        Exception error;
+    }
+}
@@ -0,0 +1,97 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+
+/**
+ * Finds queued jobs that are made redundant by other jobs of the same drain page, so
+ * they can be dropped before any SCIM call is made for them.
+ * <ul>
+ * <li>a user or group delete supersedes every job queued before it for that user or group,
+ * and a user delete also supersedes user creates queued after it</li>
+ * <li>of two opposite jobs for the same user/group, group/role or user/role pair only the
+ * newer one is kept, as it reflects the current Keycloak state</li>
+ * <li>a user create or update supersedes the role assignments of that user, as it sends the
+ * user's current roles. Unassignments still run, an update never removes roles.</li>
+ * </ul>
+ * Jobs must be passed in queue order (CREATED_ON, ID). Repeated jobs of the same action are
+ * already collapsed on enqueue by the DEDUPE_KEY index.
+ */
+public final class ScimSyncJobCompactor {
+    private static final Map<String, String> OPPOSITE_ACTIONS = Map.of(
+            ScimSyncJob.JOIN_GROUP, ScimSyncJob.LEAVE_GROUP,
+            ScimSyncJob.LEAVE_GROUP, ScimSyncJob.JOIN_GROUP,
+            ScimSyncJob.ADD_ROLE_TO_GROUP, ScimSyncJob.REMOVE_ROLE_FROM_GROUP,
+            ScimSyncJob.REMOVE_ROLE_FROM_GROUP, ScimSyncJob.ADD_ROLE_TO_GROUP,
+            ScimSyncJob.ADD_ROLE_TO_USER, ScimSyncJob.REMOVE_ROLE_FROM_USER,
+            ScimSyncJob.REMOVE_ROLE_FROM_USER, ScimSyncJob.ADD_ROLE_TO_USER);
+
+    private ScimSyncJobCompactor() {
+    }
+
+    public static List<ScimSyncJobQueue> findSuperseded(List<ScimSyncJobQueue> jobs) {
+        Set<ScimSyncJobQueue> superseded = new LinkedHashSet<>();
+        Set<String> deletedUsers = new HashSet<>();
+        Map<String, ScimSyncJobQueue> latestByPair = new HashMap<>();
+
+        for (int i = 0; i < jobs.size(); i++) {
+            ScimSyncJobQueue job = jobs.get(i);
+            String action = job.getAction();
+
+            if (ScimSyncJob.DELETE_USER.equals(action) && job.getUserId() != null) {
+                deletedUsers.add(job.getUserId());
+                supersedeEarlier(jobs, i, superseded, j -> job.getUserId().equals(j.getUserId()));
+            } else if (ScimSyncJob.DELETE_GROUP.equals(action) && job.getGroupId() != null) {
+                supersedeEarlier(jobs, i, superseded, j -> job.getGroupId().equals(j.getGroupId()));
+            }
+
+            String opposite = OPPOSITE_ACTIONS.get(action);
+            if (opposite != null) {
+                String pair = job.getUserId() + ":" + job.getGroupId() + ":" + job.getRoleId();
+                ScimSyncJobQueue previous = latestByPair.put(pair, job);
+                if (previous != null && opposite.equals(previous.getAction())) {
+                    superseded.add(previous);
+                }
+            }
+        }
+
+        Set<String> pushedUsers = new HashSet<>();
+        for (ScimSyncJobQueue job : jobs) {
+            if (isCreate(job) && deletedUsers.contains(job.getUserId())) {
+                superseded.add(job);
+            } else if (isCreate(job) && job.getUserId() != null) {
+                pushedUsers.add(job.getUserId());
+            }
+        }
+
+        for (ScimSyncJobQueue job : jobs) {
+            if (ScimSyncJob.ADD_ROLE_TO_USER.equals(job.getAction()) && pushedUsers.contains(job.getUserId())) {
+                superseded.add(job);
+            }
+        }
+
+        return new ArrayList<>(superseded);
+    }
+
+    private static boolean isCreate(ScimSyncJobQueue job) {
+        return ScimSyncJob.CREATE_USER.equals(job.getAction())
+                || ScimSyncJob.CREATE_USER_EXTERNAL.equals(job.getAction());
+    }
+
+    private static void supersedeEarlier(List<ScimSyncJobQueue> jobs, int index, Set<ScimSyncJobQueue> superseded,
+            Predicate<ScimSyncJobQueue> sameEntity) {
+        for (int j = 0; j < index; j++) {
+            if (sameEntity.test(jobs.get(j))) {
+                superseded.add(jobs.get(j));
+            }
+        }
+    }
+}
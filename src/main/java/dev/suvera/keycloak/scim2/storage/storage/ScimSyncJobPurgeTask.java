@@ -0,0 +1,137 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.jboss.logging.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.executors.ExecutorsProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.ScheduledTask;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Removes queued jobs that can never run because their realm, component, user or group no
+ * longer exists, moves jobs not run within the retention period to the dead letters and
+ * removes dead letters older than it.
+ * <p>
+ * Rows are deleted in chunks, each in its own short transaction followed by a pause, so the
+ * purge never holds locks on the queue for long while the drain is running. The purge runs on
+ * its own executor, not on the Keycloak timer thread.
+ */
+public class ScimSyncJobPurgeTask implements ScheduledTask {
+    private static final Logger log = Logger.getLogger(ScimSyncJobPurgeTask.class);
+
+    public static final String TASK_NAME = "scim-sync-job-purge";
+
+    private static final String REMOVED_REALMS = "select u.id from ScimSyncJobQueue u"
+            + " where not exists (select r.id from RealmEntity r where r.id = u.realmId)";
+    private static final String REMOVED_COMPONENTS = "select u.id from ScimSyncJobQueue u where u.componentId is not null"
+            + " and not exists (select c.id from ComponentEntity c where c.id = u.componentId)";
+    private static final String REMOVED_USERS = "select u.id from ScimSyncJobQueue u where u.userId is not null"
+            + " and u.action <> '" + ScimSyncJob.DELETE_USER + "'"
+            + " and not exists (select e.id from UserEntity e where e.id = u.userId)";
+    private static final String REMOVED_GROUPS = "select u.id from ScimSyncJobQueue u where u.groupId is not null"
+            + " and u.action <> '" + ScimSyncJob.DELETE_GROUP + "'"
+            + " and not exists (select g.id from GroupEntity g where g.id = u.groupId)";
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final long maxAgeMillis;
+    private final int chunkSize;
+    private final long pauseMillis;
+
+    public ScimSyncJobPurgeTask(long maxAgeMillis, int chunkSize, long pauseMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    @Override
+    public void run(KeycloakSession session) {
+        if (!running.compareAndSet(false, true)) {
+            log.debugf("Previous SCIM job purge is still running");
+            return;
+        }
+
+        KeycloakSessionFactory sessionFactory = session.getKeycloakSessionFactory();
+        session.getProvider(ExecutorsProvider.class).getExecutor(TASK_NAME).execute(() -> {
+            try {
+                purge(sessionFactory);
+            } catch (RuntimeException e) {
+                log.error("SCIM job purge failed", e);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    @Override
+    public String getTaskName() {
+        return TASK_NAME;
+    }
+
+    private void purge(KeycloakSessionFactory sessionFactory) {
+        Date before = new Date(System.currentTimeMillis() - maxAgeMillis);
+
+        purgeOrphans(sessionFactory, "removed realms", REMOVED_REALMS);
+        purgeOrphans(sessionFactory, "removed components", REMOVED_COMPONENTS);
+        purgeOrphans(sessionFactory, "removed users", REMOVED_USERS);
+        purgeOrphans(sessionFactory, "removed groups", REMOVED_GROUPS);
+
+        purgeInChunks(sessionFactory, "jobs not run since " + before,
+                s -> ScimSyncJobQueueManagerFactory.create(s).purgeJobs(before, chunkSize));
+        purgeInChunks(sessionFactory, "dead letters last attempted before " + before,
+                s -> new ScimSyncDeadLetterManager(s).purge(before, chunkSize));
+    }
+
+    private void purgeOrphans(KeycloakSessionFactory sessionFactory, String description, String query) {
+        purgeInChunks(sessionFactory, "jobs of " + description, s -> {
+            EntityManager em = s.getProvider(JpaConnectionProvider.class).getEntityManager();
+            List<String> ids = em.createQuery(query, String.class)
+                    .setMaxResults(chunkSize)
+                    .getResultList();
+
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            return em.createNamedQuery("deleteJobs")
+                    .setParameter("ids", ids)
+                    .executeUpdate();
+        });
+    }
+
+    private void purgeInChunks(KeycloakSessionFactory sessionFactory, String description,
+            Function<KeycloakSession, Integer> deleteChunk) {
+        int total = 0;
+        AtomicInteger deleted = new AtomicInteger();
+
+        do {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, s -> deleted.set(deleteChunk.apply(s)));
+            total += deleted.get();
+
+            if (deleted.get() >= chunkSize && !pause()) {
+                break;
+            }
+        } while (deleted.get() >= chunkSize);
+
+        if (total > 0) {
+            log.infof("Purged %d %s", total, description);
+        }
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -2,8 +2,13 @@ package dev.suvera.keycloak.scim2.storage.storage;
 
 import org.keycloak.models.KeycloakSession;
 
+/**
+ * Returns the job queue backend configured for the {@code scim-job-queue-backend} SPI, e.g.
+ * {@code --spi-scim-job-queue-backend-provider=journal}. Without configuration the JPA
+ * backend is used.
+ */
 public class ScimSyncJobQueueManagerFactory {
-    public static ScimSyncJobQueueManager create(KeycloakSession session) {
-        return new ScimSyncJobQueueManager(session);
+    public static ScimJobQueueBackend create(KeycloakSession session) {
+        return session.getProvider(ScimJobQueueBackend.class);
     }
 }
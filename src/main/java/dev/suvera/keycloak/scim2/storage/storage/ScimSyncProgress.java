@@ -0,0 +1,61 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.keycloak.storage.user.SynchronizationResult;
+
+import lombok.Value;
+
+/**
+ * Tracks the batches of a full synchronization, which workers may finish out of order, and
+ * reports progress only over the batches that completed without a gap. Reports are serialized
+ * so the checkpoint never moves back.
+ */
+public class ScimSyncProgress {
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * All batches up to the one ending with {@code lastUserId} are complete. The counts
+         * cover the batches completed since the previous call.
+         */
+        void advanced(String lastUserId, int processed, SynchronizationResult result);
+    }
+
+    private final Listener listener;
+    private final Map<Integer, CompletedBatch> completed = new HashMap<>();
+    private int next;
+
+    public ScimSyncProgress(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Records batch {@code number}, counted from 0 in user id order, as complete.
+     */
+    public synchronized void complete(int number, String lastUserId, int size, SynchronizationResult result) {
+        completed.put(number, new CompletedBatch(lastUserId, size, result));
+
+        SynchronizationResult advanced = new SynchronizationResult();
+        String advancedTo = null;
+        int processed = 0;
+        CompletedBatch batch;
+        while ((batch = completed.remove(next)) != null) {
+            advanced.add(batch.getResult());
+            advancedTo = batch.getLastUserId();
+            processed += batch.getSize();
+            next++;
+        }
+
+        if (advancedTo != null) {
+            listener.advanced(advancedTo, processed, advanced);
+        }
+    }
+
+    @Value
+    private static class CompletedBatch {
+        String lastUserId;
+        int size;
+        SynchronizationResult result;
+    }
+}
@@ -2,25 +2,46 @@ package dev.suvera.keycloak.scim2.storage.storage;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
-import jakarta.persistence.EntityManager;
-
 import org.jboss.logging.Logger;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
-import org.keycloak.models.UserModel;
 import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.storage.StorageId;
 import org.keycloak.storage.user.SynchronizationResult;
 
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncCheckpoint;
 import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import jakarta.persistence.EntityManager;
+import lombok.Value;
 
 public class ScimSyncRunner {
     private static final Logger log = Logger.getLogger(ScimSyncRunner.class);
+    public static final String DISPATCH_BATCH_SIZE = "dispatchBatchSize";
+    public static final int DEFAULT_DISPATCH_BATCH_SIZE = 100;
+    public static final String SYNC_PARALLELISM = "syncParallelism";
+    public static final int DEFAULT_SYNC_PARALLELISM = 4;
+    public static final String FULL_SYNC_FORCE_PUSH = "fullSyncForcePush";
+    private static final int USER_BATCH_SIZE = 1000;
+    private static final int JOB_BATCH_SIZE = 1000;
+    private static final int ADMIN_EVENT_BATCH_SIZE = 1000;
+    private static final long JOB_BATCH_LEASE_MILLIS = 15 * 60 * 1000L;
+    private static final String USERS_PATH = "users/";
+    private static final ResourceType[] USER_RESOURCE_TYPES = {
+            ResourceType.USER, ResourceType.GROUP_MEMBERSHIP, ResourceType.REALM_ROLE_MAPPING, ResourceType.CLIENT_ROLE_MAPPING
+    };
     private KeycloakSessionFactory sessionFactory;
     private ComponentModel model;
 
@@ -29,106 +50,383 @@ public class ScimSyncRunner {
         this.model = model;
     }
 
+    /**
+     * Pushes all enabled users of the component, and of LDAP components with SCIM events, to
+     * the SCIM service provider. User ids are read page by page in id order and every page
+     * is synced by one of at most {@link #SYNC_PARALLELISM} workers, each user in its own
+     * transaction.
+     * <p>
+     * Progress is kept in a {@link ScimSyncCheckpoint} that advances once all pages up to a
+     * user have been synced. A run that was interrupted, e.g. by a restart, continues after
+     * the checkpoint; after a completed run, or once the checkpoint was deleted, the next run
+     * starts from the first user.
+     */
     public SynchronizationResult syncAll(String realmId) {
-        log.infof("Starting synchronization of all users for realm: %s", realmId);
-
-        SynchronizationResult result = new SynchronizationResult();
+        SynchronizationResult result = new ConcurrentSynchronizationResult();
 
-        List<String> ldapComponentModels = ComponentModelUtils
+        List<String> federationLinks = ComponentModelUtils
                 .getLDAPComponentsWithScimEventsEnabled(sessionFactory, realmId)
-                .collect(Collectors.toList());
+                .collect(Collectors.toCollection(ArrayList::new));
+        federationLinks.add(model.getId());
 
-        int batchNumber = 0;
-        List<UserModel> users;
-        do {
-            log.infof("Fetching batch %d of users...", batchNumber);
-            users = getBatchOfUsers(realmId, ldapComponentModels, 1000, batchNumber);
-            log.infof("Fetched %d users in batch %d.", users.size(), batchNumber);
+        String[] checkpoint = new String[1];
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, kcSession -> {
+            long total = countUsers(kcSession, realmId, federationLinks);
+            checkpoint[0] = new ScimSyncCheckpointManager(kcSession).start(realmId, model.getId(), total).getLastUserId();
+        });
+
+        log.infof("Starting synchronization of all users for realm: %s%s", realmId,
+                checkpoint[0] != null ? " after user " + checkpoint[0] : "");
 
-            users.forEach(user -> executeSyncUserJob(user, realmId, result));
-            log.infof("Executed synchronization of users for batch %d.", batchNumber);
+        int parallelism = getSyncParallelism();
+        ExecutorService executor = ScimExecutors.create("scim-sync", parallelism);
+        Semaphore workers = new Semaphore(parallelism);
+        ScimSyncProgress progress = new ScimSyncProgress(this::saveCheckpoint);
+        boolean forcePush = Boolean.parseBoolean(model.get(FULL_SYNC_FORCE_PUSH, "true"));
 
-            batchNumber++;
-        } while (!users.isEmpty());
+        try {
+            String lastUserId = checkpoint[0] != null ? checkpoint[0] : "";
+            int batchNumber = 0;
+            List<SyncUser> users;
+            do {
+                users = getBatchOfUsers(realmId, federationLinks, lastUserId, USER_BATCH_SIZE);
+                log.infof("Fetched %d users in batch %d.", users.size(), batchNumber);
+                if (users.isEmpty()) {
+                    break;
+                }
+                lastUserId = users.get(users.size() - 1).getId();
+
+                workers.acquire();
+                List<SyncUser> batch = users;
+                int number = batchNumber;
+                executor.execute(() -> {
+                    try {
+                        SynchronizationResult batchResult = new SynchronizationResult();
+                        batch.forEach(user -> executeSyncUserJob(user, realmId, batchResult, forcePush));
+                        result.add(batchResult);
+                        progress.complete(number, batch.get(batch.size() - 1).getId(), batch.size(), batchResult);
+                        log.infof("Executed synchronization of users for batch %d.", number);
+                    } finally {
+                        workers.release();
+                    }
+                });
+
+                batchNumber++;
+            } while (users.size() == USER_BATCH_SIZE);
+
+            workers.acquire(parallelism);
+
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, kcSession ->
+                    new ScimSyncCheckpointManager(kcSession).finish(model.getId()));
+            log.infof("Completed synchronization of all users for realm: %s", realmId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warnf("Synchronization of all users for realm %s was interrupted", realmId);
+        } finally {
+            executor.shutdown();
+        }
 
-        log.infof("Completed synchronization of all users for realm: %s", realmId);
         return result;
     }
 
+    /**
+     * Runs the pending jobs, then pushes the users that changed since {@code lastSync} and
+     * were not synced after their change: users created since then, and users that admin
+     * events stored since then refer to. A user is skipped when its {@code LAST_SYNC_TIME}
+     * is newer than its latest change, so the cost follows the churn, not the realm size.
+     * The selected users are pushed even if their record looks unchanged, which also
+     * repairs their group memberships.
+     */
     public SynchronizationResult syncSince(Date lastSync, String realmId) {
-        log.infof("Starting syncing pending jobs.", lastSync, realmId);
+        log.infof("Starting syncing pending jobs.");
         SynchronizationResult result = callSyncJobs();
         log.info("Syncing pending jobs completed.");
+
+        if (lastSync != null) {
+            result.add(syncChangedUsers(lastSync, realmId));
+        }
         return result;
     }
 
-    private List<UserModel> getBatchOfUsers(String realmId, List<String> ldapComponentModels, int batchSize,
-            int batchNumber) {
-        List<UserModel> users = new ArrayList<>();
+    private SynchronizationResult syncChangedUsers(Date lastSync, String realmId) {
+        SynchronizationResult result = new ConcurrentSynchronizationResult();
+
+        List<String> federationLinks = ComponentModelUtils
+                .getLDAPComponentsWithScimEventsEnabled(sessionFactory, realmId)
+                .collect(Collectors.toCollection(ArrayList::new));
+        federationLinks.add(model.getId());
+
+        Map<String, Long> changedOn = new HashMap<>();
+        List<SyncUser> users = new ArrayList<>();
         KeycloakModelUtils.runJobInTransaction(sessionFactory, kcSession -> {
+            EntityManager em = kcSession.getProvider(JpaConnectionProvider.class).getEntityManager();
+
+            em.createQuery("select u.id, u.createdTimestamp from UserEntity u where u.realmId = :realmId and u.enabled = true"
+                            + " and u.federationLink in :federationLinks and u.createdTimestamp >= :since", Object[].class)
+                    .setParameter("realmId", realmId)
+                    .setParameter("federationLinks", federationLinks)
+                    .setParameter("since", lastSync.getTime())
+                    .getResultList()
+                    .forEach(row -> changedOn.merge((String) row[0], (Long) row[1], Math::max));
+
             RealmModel realm = kcSession.realms().getRealm(realmId);
-            kcSession.getContext().setRealm(realm);
-            kcSession.users()
-                    .searchForUserStream(realm, Map.of(UserModel.ENABLED, "true"))
-                    .sorted((u1, u2) -> u1.getId().compareTo(u2.getId()))
-                    .filter(u -> u.getFederationLink() != null
-                            && (u.getFederationLink().equals(model.getId()))
-                            || ldapComponentModels.stream().anyMatch(l -> l.equals(u.getFederationLink())))
-                    .skip(batchSize * batchNumber)
-                    .limit(batchSize)
-                    .forEach(users::add);
+            EventStoreProvider eventStore = kcSession.getProvider(EventStoreProvider.class);
+            if (realm != null && !realm.isAdminEventsEnabled()) {
+                log.warnf("Admin events are not saved in realm %s, so only users created since %s are synced."
+                        + " Enable saving admin events or run a full synchronization to push changed users.", realm.getName(), lastSync);
+            } else if (eventStore != null) {
+                collectAdminEventChanges(eventStore, realmId, lastSync, changedOn);
+            }
+
+            List<String> userIds = new ArrayList<>(changedOn.keySet());
+            for (int from = 0; from < userIds.size(); from += USER_BATCH_SIZE) {
+                users.addAll(getUnsyncedUsers(em, realmId, federationLinks,
+                        userIds.subList(from, Math.min(from + USER_BATCH_SIZE, userIds.size())), changedOn));
+            }
         });
-        return users;
+
+        log.infof("%d users changed since %s, %d of them not synced yet.", changedOn.size(), lastSync, users.size());
+
+        int parallelism = getSyncParallelism();
+        ExecutorService executor = ScimExecutors.create("scim-sync", parallelism);
+        Semaphore workers = new Semaphore(parallelism);
+        try {
+            for (SyncUser user : users) {
+                workers.acquire();
+                executor.execute(() -> {
+                    try {
+                        // the change may be a membership only, which the last pushed record does not show
+                        executeSyncUserJob(user, realmId, result, true);
+                    } finally {
+                        workers.release();
+                    }
+                });
+            }
+            workers.acquire(parallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warnf("Synchronization of changed users for realm %s was interrupted", realmId);
+        } finally {
+            executor.shutdown();
+        }
+
+        return result;
     }
 
-    private void executeSyncUserJob(UserModel user, String realmId, SynchronizationResult result) {
-        KeycloakModelUtils.runJobInTransaction(sessionFactory, jobSession -> {
-            ScimSyncJob sync = new ScimSyncJob(jobSession);
+    /**
+     * Merges the time of the latest admin event since {@code lastSync} of every user into
+     * {@code changedOn}, reading the events page by page. Events are returned newest first, so
+     * events stored meanwhile only repeat an event on a later page and none is missed.
+     */
+    private void collectAdminEventChanges(EventStoreProvider eventStore, String realmId, Date lastSync, Map<String, Long> changedOn) {
+        int first = 0;
+        List<AdminEvent> events;
+        do {
+            events = eventStore.createAdminQuery()
+                    .realm(realmId)
+                    .resourceType(USER_RESOURCE_TYPES)
+                    .fromTime(lastSync.getTime())
+                    .firstResult(first)
+                    .maxResults(ADMIN_EVENT_BATCH_SIZE)
+                    .getResultStream()
+                    .collect(Collectors.toList());
 
-            ScimSyncJobQueue job = new ScimSyncJobQueue();
+            for (AdminEvent event : events) {
+                String userId = getUserId(event.getResourcePath());
+                if (userId != null) {
+                    changedOn.merge(userId, event.getTime(), Math::max);
+                }
+            }
+            first += events.size();
+        } while (events.size() == ADMIN_EVENT_BATCH_SIZE);
+    }
 
-            String action = ScimSyncJob.CREATE_USER;
-            if (!user.getFederationLink().equals(model.getId())) {
-                action = ScimSyncJob.CREATE_USER_EXTERNAL;
+    /**
+     * The users among {@code userIds} that are enabled, linked to one of the federation links
+     * and whose {@code LAST_SYNC_TIME} is missing or older than their change.
+     */
+    private List<SyncUser> getUnsyncedUsers(EntityManager em, String realmId, List<String> federationLinks,
+            List<String> userIds, Map<String, Long> changedOn) {
+        List<Object[]> rows = em.createQuery("select u.id, u.federationLink, u.username from UserEntity u where u.realmId = :realmId"
+                        + " and u.enabled = true and u.federationLink in :federationLinks and u.id in :userIds", Object[].class)
+                .setParameter("realmId", realmId)
+                .setParameter("federationLinks", federationLinks)
+                .setParameter("userIds", userIds)
+                .getResultList();
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+
+        // the adapter keeps its attributes under the federated id of the username
+        Map<String, String> federatedIds = new HashMap<>();
+        rows.forEach(row -> federatedIds.put(StorageId.keycloakId(model, (String) row[2]), (String) row[0]));
+
+        Map<String, Long> syncedOn = new HashMap<>();
+        em.createQuery("select a.userId, a.value from FederatedUserAttributeEntity a where a.storageProviderId = :componentId"
+                        + " and a.name = :name and a.userId in :federatedIds", Object[].class)
+                .setParameter("componentId", model.getId())
+                .setParameter("name", ScimUserAdapter.TIMESTAMP_ATTRIBUTE)
+                .setParameter("federatedIds", federatedIds.keySet())
+                .getResultList()
+                .forEach(row -> {
+                    try {
+                        syncedOn.put(federatedIds.get((String) row[0]), Long.parseLong((String) row[1]));
+                    } catch (NumberFormatException e) {
+                        // unreadable timestamp, sync the user again
+                    }
+                });
+
+        List<SyncUser> users = new ArrayList<>();
+        for (Object[] row : rows) {
+            String userId = (String) row[0];
+            Long synced = syncedOn.get(userId);
+            if (synced == null || synced < changedOn.get(userId)) {
+                users.add(new SyncUser(userId, (String) row[1]));
             }
+        }
+        return users;
+    }
 
-            job.setAction(action);
-            job.setId(KeycloakModelUtils.generateId());
-            job.setRealmId(realmId);
-            job.setComponentId(model.getId());
-            job.setUserId(user.getId());
+    /**
+     * User id of an admin event resource path like {@code users/{id}} or
+     * {@code users/{id}/groups/{groupId}}.
+     */
+    private static String getUserId(String resourcePath) {
+        if (resourcePath == null || !resourcePath.startsWith(USERS_PATH)) {
+            return null;
+        }
+        int end = resourcePath.indexOf('/', USERS_PATH.length());
+        String userId = end < 0 ? resourcePath.substring(USERS_PATH.length()) : resourcePath.substring(USERS_PATH.length(), end);
+        return userId.isEmpty() ? null : userId;
+    }
 
-            sync.execute(job, result);
+    /**
+     * Next page of enabled users linked to one of the federation links with an id greater
+     * than {@code afterUserId}.
+     */
+    private List<SyncUser> getBatchOfUsers(String realmId, List<String> federationLinks, String afterUserId, int batchSize) {
+        List<SyncUser> users = new ArrayList<>();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, kcSession -> {
+            EntityManager em = kcSession.getProvider(JpaConnectionProvider.class).getEntityManager();
+            em.createQuery("select u.id, u.federationLink from UserEntity u where u.realmId = :realmId and u.enabled = true"
+                            + " and u.federationLink in :federationLinks and u.id > :afterUserId order by u.id", Object[].class)
+                    .setParameter("realmId", realmId)
+                    .setParameter("federationLinks", federationLinks)
+                    .setParameter("afterUserId", afterUserId)
+                    .setMaxResults(batchSize)
+                    .getResultList()
+                    .forEach(row -> users.add(new SyncUser((String) row[0], (String) row[1])));
         });
+        return users;
+    }
+
+    private long countUsers(KeycloakSession kcSession, String realmId, List<String> federationLinks) {
+        EntityManager em = kcSession.getProvider(JpaConnectionProvider.class).getEntityManager();
+        return em.createQuery("select count(u) from UserEntity u where u.realmId = :realmId and u.enabled = true"
+                        + " and u.federationLink in :federationLinks", Long.class)
+                .setParameter("realmId", realmId)
+                .setParameter("federationLinks", federationLinks)
+                .getSingleResult();
+    }
+
+    private void executeSyncUserJob(SyncUser user, String realmId, SynchronizationResult result, boolean forcePush) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, jobSession -> {
+                ScimSyncJob sync = new ScimSyncJob(jobSession);
+                sync.setForcePush(forcePush);
+
+                ScimSyncJobQueue job = new ScimSyncJobQueue();
+
+                String action = ScimSyncJob.CREATE_USER;
+                if (!user.getFederationLink().equals(model.getId())) {
+                    action = ScimSyncJob.CREATE_USER_EXTERNAL;
+                }
+
+                job.setAction(action);
+                job.setId(KeycloakModelUtils.generateId());
+                job.setRealmId(realmId);
+                job.setComponentId(model.getId());
+                job.setUserId(user.getId());
+
+                sync.execute(job, result);
+            });
+        } catch (RuntimeException e) {
+            log.errorf(e, "Synchronization of user %s failed", user.getId());
+            result.increaseFailed();
+        }
     }
 
     private SynchronizationResult callSyncJobs() {
         SynchronizationResult result = new SynchronizationResult();
 
-        for (List<ScimSyncJobQueue> jobs = fetchJobs(); !jobs.isEmpty(); jobs = fetchJobs()) {
-            jobs.forEach(job -> executeJob(job, result));
+        PendingJobCursor cursor = new PendingJobCursor();
+
+        int batchSize = getDispatchBatchSize();
+
+        while (cursor.hasMore()) {
+            List<ScimSyncJobQueue> jobs = fetchJobs(cursor);
+            for (int from = 0; from < jobs.size(); from += batchSize) {
+                executeJobs(jobs.subList(from, Math.min(from + batchSize, jobs.size())), result);
+            }
         }
 
         return result;
     }
 
-    private List<ScimSyncJobQueue> fetchJobs() {
+    private List<ScimSyncJobQueue> fetchJobs(PendingJobCursor cursor) {
         List<ScimSyncJobQueue> jobs = new ArrayList<>();
         KeycloakModelUtils.runJobInTransaction(sessionFactory, kcSession -> {
-            EntityManager em = kcSession.getProvider(JpaConnectionProvider.class).getEntityManager();
-            log.infof("Fetching new batch of pending jobs...");
-            em.createNamedQuery("getPendingJobs", ScimSyncJobQueue.class)
-                .setMaxResults(1000)
-                .getResultStream()
-                .forEach(jobs::add);
+            log.infof("Claiming new batch of pending jobs...");
+            jobs.addAll(ScimSyncJobQueueManagerFactory.create(kcSession)
+                    .claimPendingJobs(cursor, JOB_BATCH_SIZE, JOB_BATCH_LEASE_MILLIS));
         });
         return jobs;
     }
 
-    private void executeJob(ScimSyncJobQueue job, SynchronizationResult result) {
+    private void executeJobs(List<ScimSyncJobQueue> jobs, SynchronizationResult result) {
         KeycloakModelUtils.runJobInTransaction(sessionFactory, kcSession -> {
             ScimSyncJob sync = new ScimSyncJob(kcSession);
-            sync.execute(job, result);
+            sync.executeBatch(jobs, result);
         });
     }
+
+    private int getSyncParallelism() {
+        String value = model.get(SYNC_PARALLELISM);
+        try {
+            int parallelism = value != null ? Integer.parseInt(value.trim()) : DEFAULT_SYNC_PARALLELISM;
+            return parallelism > 0 ? parallelism : DEFAULT_SYNC_PARALLELISM;
+        } catch (NumberFormatException e) {
+            log.warnf("Invalid %s value %s, using %d", SYNC_PARALLELISM, value, DEFAULT_SYNC_PARALLELISM);
+            return DEFAULT_SYNC_PARALLELISM;
+        }
+    }
+
+    private int getDispatchBatchSize() {
+        String value = model.get(DISPATCH_BATCH_SIZE);
+        try {
+            int batchSize = value != null ? Integer.parseInt(value.trim()) : DEFAULT_DISPATCH_BATCH_SIZE;
+            return batchSize > 0 ? batchSize : DEFAULT_DISPATCH_BATCH_SIZE;
+        } catch (NumberFormatException e) {
+            log.warnf("Invalid %s value %s, using %d", DISPATCH_BATCH_SIZE, value, DEFAULT_DISPATCH_BATCH_SIZE);
+            return DEFAULT_DISPATCH_BATCH_SIZE;
+        }
+    }
+
+    /**
+     * Saves the checkpoint after all batches up to {@code lastUserId} have been synced.
+     */
+    private void saveCheckpoint(String lastUserId, int processed, SynchronizationResult result) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, kcSession ->
+                    new ScimSyncCheckpointManager(kcSession).advance(model.getId(), lastUserId, processed, result));
+        } catch (RuntimeException e) {
+            log.warnf(e, "Could not save synchronization checkpoint after user %s", lastUserId);
+        }
+    }
+
+    @Value
+    private static class SyncUser {
+        String id;
+        String federationLink;
+    }
 }
@@ -11,7 +11,8 @@ import org.keycloak.storage.adapter.AbstractUserAdapterFederatedStorage;
 
 public class ScimUserAdapter extends AbstractUserAdapterFederatedStorage {
     private static final String EXTERNAL_ID_ATTRIBUTE = "EXTERNAL_ID";
-    private static final String TIMESTAMP_ATTRIBUTE = "LAST_SYNC_TIME";
+    static final String TIMESTAMP_ATTRIBUTE = "LAST_SYNC_TIME";
+    private static final String SYNC_HASH_ATTRIBUTE = "SYNC_HASH";
 
     private UserModel localUser;
 
@@ -43,13 +44,31 @@ public class ScimUserAdapter extends AbstractUserAdapterFederatedStorage {
 
     public void removeExternalId() {
         removeAttribute(EXTERNAL_ID_ATTRIBUTE);
+        removeAttribute(SYNC_HASH_ATTRIBUTE);
+    }
+
+    /**
+     * Hash of the user record last pushed to the SCIM service provider.
+     */
+    public String getSyncHash() {
+        return getFirstAttribute(SYNC_HASH_ATTRIBUTE);
+    }
+
+    public void setSyncHash(String syncHash) {
+        setSingleAttribute(SYNC_HASH_ATTRIBUTE, syncHash);
     }
 
     public UserModel getLocalUserModel() {
         return localUser;
     }
 
+    /**
+     * Top-level groups the local user is a member of. The federated storage of this provider
+     * holds no memberships, and subgroups are not synced.
+     */
     public Stream<ScimGroupAdapter> getScimGroupsStream() {
-        return getGroupsStream().map(g -> new ScimGroupAdapter(session, g, realm.getId(), storageProviderModel.getId()));
+        return localUser.getGroupsStream()
+                .filter(g -> g.getParentId() == null)
+                .map(g -> new ScimGroupAdapter(session, g, realm.getId(), storageProviderModel.getId()));
     }
 }
@@ -0,0 +1,191 @@
+package dev.suvera.keycloak.scim2.storage.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Append-only log of records in fixed size, memory-mapped segment files.
+ * <p>
+ * A record is {@code [int length][int crc32][byte type][payload]}, where length covers type
+ * and payload. Segments are zero-filled when created, so a zero length marks the end of a
+ * segment, and a record with a bad checksum (a torn write) ends replay of its segment.
+ * Every open starts a new segment, older segments are never written again.
+ */
+class SegmentJournal implements Closeable {
+    private static final Logger log = Logger.getLogger(SegmentJournal.class);
+
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    interface RecordHandler {
+        void accept(byte type, byte[] payload);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+
+    private final List<Path> segments = new ArrayList<>();
+    private long nextSequence;
+    private MappedByteBuffer active;
+    private long recordCount;
+
+    SegmentJournal(Path directory, int segmentSize, boolean fsync) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Replays all records in write order and opens a new segment for appending.
+     */
+    synchronized void open(RecordHandler handler) throws IOException {
+        Files.createDirectories(directory);
+
+        List<Path> existing;
+        try (Stream<Path> files = Files.list(directory)) {
+            existing = files.filter(SegmentJournal::isSegment).sorted().collect(Collectors.toList());
+        }
+
+        for (Path segment : existing) {
+            replay(segment, handler);
+            segments.add(segment);
+            nextSequence = Math.max(nextSequence, sequenceOf(segment) + 1);
+        }
+
+        roll();
+    }
+
+    synchronized void append(byte type, byte[] payload) throws IOException {
+        int length = payload.length + 1;
+        if (HEADER_SIZE + length > segmentSize) {
+            throw new IOException("Journal record of " + length + " bytes exceeds the segment size of " + segmentSize);
+        }
+        if (active.remaining() < HEADER_SIZE + length) {
+            roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        int start = active.position();
+        active.putInt(length);
+        active.putInt((int) crc.getValue());
+        active.put(type);
+        active.put(payload);
+        recordCount++;
+
+        if (fsync) {
+            active.force(start, HEADER_SIZE + length);
+        }
+    }
+
+    /**
+     * Writes the given records to new segments, then deletes all segments written before.
+     * A crash in between leaves both copies, which replay to the same state.
+     */
+    synchronized void rewrite(byte type, Collection<byte[]> payloads) throws IOException {
+        roll();
+        int firstNew = segments.size() - 1;
+        recordCount = 0;
+
+        for (byte[] payload : payloads) {
+            append(type, payload);
+        }
+
+        List<Path> obsolete = new ArrayList<>(segments.subList(0, firstNew));
+        segments.subList(0, firstNew).clear();
+        for (Path segment : obsolete) {
+            Files.deleteIfExists(segment);
+        }
+        log.debugf("Rewrote journal %s into %d records, deleted %d segments", directory, payloads.size(), obsolete.size());
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Records in all current segments, live or not.
+     */
+    synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (active != null && fsync) {
+            active.force();
+        }
+        active = null;
+    }
+
+    private void roll() throws IOException {
+        if (active != null && fsync) {
+            active.force();
+        }
+
+        Path segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(segmentSize);
+            active = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segments.add(segment);
+    }
+
+    private void replay(Path segment, RecordHandler handler) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+
+            byte type = buffer.get();
+            byte[] payload = new byte[length - 1];
+            buffer.get(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                log.warnf("Journal segment %s has a corrupt record at offset %d, ignoring the rest of it",
+                        segment, buffer.position() - HEADER_SIZE - length);
+                break;
+            }
+
+            handler.accept(type, payload);
+            recordCount++;
+        }
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -1,19 +1,26 @@
 package dev.suvera.keycloak.scim2.storage.storage;
 
+import org.jboss.logging.Logger;
+import org.keycloak.Config.Scope;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.component.ComponentValidationException;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.provider.ProviderConfigurationBuilder;
+import org.keycloak.services.scheduled.ClusterAwareScheduledTaskRunner;
 import org.keycloak.storage.UserStorageProviderFactory;
 import org.keycloak.storage.UserStorageProviderModel;
 import org.keycloak.storage.user.ImportSynchronization;
 import org.keycloak.storage.user.SynchronizationResult;
+import org.keycloak.timer.TimerProvider;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * author: suvera
@@ -22,8 +29,18 @@ import java.util.List;
 public class SkssStorageProviderFactory implements UserStorageProviderFactory<SkssStorageProvider>, ImportSynchronization {
     protected static final List<ProviderConfigProperty> configMetadata;
 
+    private static final Logger log = Logger.getLogger(SkssStorageProviderFactory.class);
+
     public static final String PROVIDER_ID = "skss-scim2-storage";
 
+    private long jobPurgeIntervalMillis;
+    private ScimSyncJobPurgeTask jobPurgeTask;
+    private int dispatcherConcurrency;
+    private int dispatcherLanes;
+    private int dispatcherMaxPending;
+    private ScimJobDispatcher dispatcher;
+    private ScimJobDebouncer debouncer;
+
     static {
         configMetadata = ProviderConfigurationBuilder.create()
                 .property()
@@ -68,6 +85,166 @@ public class SkssStorageProviderFactory implements UserStorageProviderFactory<Sk
                 .helpText("Client secret to access the scim resources")
                 .add()
 
+                .property()
+                .name(RetryPolicy.MAX_ATTEMPTS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Retry max attempts")
+                .helpText("How many times a failed SCIM sync job is attempted before it is given up")
+                .defaultValue(String.valueOf(RetryPolicy.DEFAULT_MAX_ATTEMPTS))
+                .add()
+
+                .property()
+                .name(RetryPolicy.BACKOFF_BASE_SECONDS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Retry backoff base (seconds)")
+                .helpText("Delay before the first retry of a failed job. Doubles with every further failure, with random jitter")
+                .defaultValue(String.valueOf(RetryPolicy.DEFAULT_BACKOFF_BASE_SECONDS))
+                .add()
+
+                .property()
+                .name(RetryPolicy.BACKOFF_MAX_SECONDS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Retry backoff max (seconds)")
+                .helpText("Upper bound for the delay between retries of a failed job")
+                .defaultValue(String.valueOf(RetryPolicy.DEFAULT_BACKOFF_MAX_SECONDS))
+                .add()
+
+                .property()
+                .name(ScimSyncRunner.DISPATCH_BATCH_SIZE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Dispatch batch size")
+                .helpText("Number of queued jobs dispatched in one transaction when pending jobs are synchronized")
+                .defaultValue(String.valueOf(ScimSyncRunner.DEFAULT_DISPATCH_BATCH_SIZE))
+                .add()
+
+                .property()
+                .name(ScimSyncRunner.SYNC_PARALLELISM)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Full sync parallelism")
+                .helpText("Number of user batches synchronized in parallel by a full synchronization")
+                .defaultValue(String.valueOf(ScimSyncRunner.DEFAULT_SYNC_PARALLELISM))
+                .add()
+
+                .property()
+                .name(ScimSyncRunner.FULL_SYNC_FORCE_PUSH)
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .label("Full sync pushes unchanged users")
+                .helpText("Full synchronization pushes every user, also users whose record did not change since it was last pushed, to repair changes made on the SCIM service provider. Other syncs always skip unchanged users")
+                .defaultValue("true")
+                .add()
+
+                .property()
+                .name(ScimClient2.MAX_CONCURRENCY)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Max concurrent requests")
+                .helpText("Upper bound of concurrent requests to the SCIM endpoint. The actual window adapts, it halves when the endpoint is overloaded and grows back with successful responses")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_MAX_CONCURRENCY))
+                .add()
+
+                .property()
+                .name(ScimClient2.RATE_LIMIT_PER_SECOND)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Rate limit (requests per second)")
+                .helpText("Maximum rate of requests to the SCIM endpoint. 0 disables the limit")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_RATE_LIMIT_PER_SECOND))
+                .add()
+
+                .property()
+                .name(ScimClient2.MAX_RETRY_AFTER_SECONDS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Max Retry-After (seconds)")
+                .helpText("Longest Retry-After of a 429 or 503 response that is waited for before the request is sent again. Longer ones fail the request")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_MAX_RETRY_AFTER_SECONDS))
+                .add()
+
+                .property()
+                .name(ScimClient2.CIRCUIT_FAILURE_THRESHOLD)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Circuit breaker failure threshold")
+                .helpText("Consecutive transport failures or 5xx responses after which jobs for the SCIM endpoint are held back in the queue without using up attempts. 0 disables the circuit breaker")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_CIRCUIT_FAILURE_THRESHOLD))
+                .add()
+
+                .property()
+                .name(ScimClient2.CIRCUIT_OPEN_SECONDS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Circuit breaker open time (seconds)")
+                .helpText("How long jobs are held back before the ServiceProviderConfig endpoint is probed to check whether the SCIM endpoint recovered")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_CIRCUIT_OPEN_SECONDS))
+                .add()
+
+                .property()
+                .name(ScimClient2.HTTP_MAX_IDLE_CONNECTIONS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("HTTP max idle connections")
+                .helpText("Idle connections kept open to the SCIM endpoint")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_HTTP_MAX_IDLE_CONNECTIONS))
+                .add()
+
+                .property()
+                .name(ScimClient2.HTTP_KEEP_ALIVE_SECONDS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("HTTP keep-alive (seconds)")
+                .helpText("How long an idle connection to the SCIM endpoint is kept open")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_HTTP_KEEP_ALIVE_SECONDS))
+                .add()
+
+                .property()
+                .name(ScimClient2.HTTP_MAX_REQUESTS_PER_HOST)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("HTTP max requests per host")
+                .helpText("Asynchronous requests sent to the SCIM endpoint at the same time. 0 uses Max concurrent requests")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_HTTP_MAX_REQUESTS_PER_HOST))
+                .add()
+
+                .property()
+                .name(ScimClient2.HTTP_CONNECT_TIMEOUT_SECONDS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("HTTP connect timeout (seconds)")
+                .helpText("Time to establish a connection to the SCIM endpoint. 0 means no timeout")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_HTTP_CONNECT_TIMEOUT_SECONDS))
+                .add()
+
+                .property()
+                .name(ScimClient2.HTTP_READ_TIMEOUT_SECONDS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("HTTP read timeout (seconds)")
+                .helpText("Longest wait for data from the SCIM endpoint. 0 means no timeout")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_HTTP_READ_TIMEOUT_SECONDS))
+                .add()
+
+                .property()
+                .name(ScimClient2.HTTP_WRITE_TIMEOUT_SECONDS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("HTTP write timeout (seconds)")
+                .helpText("Longest wait while sending data to the SCIM endpoint. 0 means no timeout")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_HTTP_WRITE_TIMEOUT_SECONDS))
+                .add()
+
+                .property()
+                .name(ScimClient2.HTTP_CALL_TIMEOUT_SECONDS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("HTTP call timeout (seconds)")
+                .helpText("Longest time for a whole request to the SCIM endpoint, including authentication. 0 means no timeout")
+                .defaultValue(String.valueOf(ScimClient2.DEFAULT_HTTP_CALL_TIMEOUT_SECONDS))
+                .add()
+
+                .property()
+                .name(ScimClient2.HTTP2)
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .label("Use HTTP/2")
+                .helpText("Negotiate HTTP/2 with the SCIM endpoint when it supports it, otherwise use HTTP/1.1 only")
+                .defaultValue("true")
+                .add()
+
+                .property()
+                .name(ScimJobDebouncer.QUIET_PERIOD_MILLIS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Debounce quiet period (ms)")
+                .helpText("Changes of a user or group are sent once it has not changed for this long, with repeated and cancelling changes merged. 0 sends every change right away")
+                .defaultValue(String.valueOf(ScimJobDebouncer.DEFAULT_QUIET_PERIOD_MILLIS))
+                .add()
+
                 .build();
     }
 
@@ -90,6 +267,96 @@ public class SkssStorageProviderFactory implements UserStorageProviderFactory<Sk
         if (config.get("clientId") == null || config.get("clientId").isEmpty()) {
             throw new ComponentValidationException("Client ID is required.", "clientId");
         }
+        validateNonNegativeNumber(config, RetryPolicy.MAX_ATTEMPTS);
+        validateNonNegativeNumber(config, RetryPolicy.BACKOFF_BASE_SECONDS);
+        validateNonNegativeNumber(config, RetryPolicy.BACKOFF_MAX_SECONDS);
+        validateNonNegativeNumber(config, ScimSyncRunner.DISPATCH_BATCH_SIZE);
+        validateNonNegativeNumber(config, ScimJobDebouncer.QUIET_PERIOD_MILLIS);
+        validateNonNegativeNumber(config, ScimSyncRunner.SYNC_PARALLELISM);
+        validateNonNegativeNumber(config, ScimClient2.MAX_CONCURRENCY);
+        validateNonNegativeNumber(config, ScimClient2.RATE_LIMIT_PER_SECOND);
+        validateNonNegativeNumber(config, ScimClient2.MAX_RETRY_AFTER_SECONDS);
+        validateNonNegativeNumber(config, ScimClient2.HTTP_MAX_IDLE_CONNECTIONS);
+        validateNonNegativeNumber(config, ScimClient2.HTTP_KEEP_ALIVE_SECONDS);
+        validateNonNegativeNumber(config, ScimClient2.HTTP_MAX_REQUESTS_PER_HOST);
+        validateNonNegativeNumber(config, ScimClient2.HTTP_CONNECT_TIMEOUT_SECONDS);
+        validateNonNegativeNumber(config, ScimClient2.HTTP_READ_TIMEOUT_SECONDS);
+        validateNonNegativeNumber(config, ScimClient2.HTTP_WRITE_TIMEOUT_SECONDS);
+        validateNonNegativeNumber(config, ScimClient2.HTTP_CALL_TIMEOUT_SECONDS);
+        validateNonNegativeNumber(config, ScimClient2.CIRCUIT_FAILURE_THRESHOLD);
+        validateNonNegativeNumber(config, ScimClient2.CIRCUIT_OPEN_SECONDS);
+    }
+
+    private void validateNonNegativeNumber(ComponentModel config, String name) throws ComponentValidationException {
+        String value = config.get(name);
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        try {
+            if (Long.parseLong(value.trim()) < 0) {
+                throw new ComponentValidationException(name + " must not be negative.", name);
+            }
+        } catch (NumberFormatException e) {
+            throw new ComponentValidationException(name + " must be a number.", name);
+        }
+    }
+
+    /**
+     * Options under {@code --spi-storage-skss-scim2-storage-}: {@code job-purge-interval-minutes}
+     * (0 disables the purge), {@code job-max-age-days}, {@code job-purge-chunk-size},
+     * {@code job-purge-pause-millis}, {@code dispatcher-concurrency}, {@code dispatcher-lanes}
+     * and {@code dispatcher-max-pending}.
+     */
+    @Override
+    public void init(Scope config) {
+        dispatcherConcurrency = Math.max(1, config.getInt("dispatcherConcurrency", ScimJobDispatcher.DEFAULT_CONCURRENCY));
+        dispatcherLanes = Math.max(1, config.getInt("dispatcherLanes", ScimJobDispatcher.DEFAULT_LANES));
+        dispatcherMaxPending = Math.max(0, config.getInt("dispatcherMaxPending", ScimJobDispatcher.DEFAULT_MAX_PENDING));
+
+        jobPurgeIntervalMillis = TimeUnit.MINUTES.toMillis(config.getLong("jobPurgeIntervalMinutes", 60L));
+        jobPurgeTask = new ScimSyncJobPurgeTask(
+                TimeUnit.DAYS.toMillis(config.getLong("jobMaxAgeDays", 30L)),
+                config.getInt("jobPurgeChunkSize", 500),
+                config.getLong("jobPurgePauseMillis", 250L));
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        dispatcher = new ScimJobDispatcher(factory, dispatcherConcurrency, dispatcherLanes, dispatcherMaxPending);
+        debouncer = new ScimJobDebouncer(dispatcher::dispatch);
+
+        if (jobPurgeIntervalMillis <= 0) {
+            return;
+        }
+
+        factory.register(event -> {
+            if (event instanceof PostMigrationEvent) {
+                KeycloakModelUtils.runJobInTransaction(factory, session -> {
+                    session.getProvider(TimerProvider.class).schedule(
+                            new ClusterAwareScheduledTaskRunner(factory, jobPurgeTask, jobPurgeIntervalMillis),
+                            jobPurgeIntervalMillis, ScimSyncJobPurgeTask.TASK_NAME);
+                    log.infof("Scheduled SCIM job purge every %d minutes", TimeUnit.MILLISECONDS.toMinutes(jobPurgeIntervalMillis));
+                });
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        if (debouncer != null) {
+            debouncer.shutdown();
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    public ScimJobDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public ScimJobDebouncer getDebouncer() {
+        return debouncer;
     }
 
     @Override
@@ -12,7 +12,6 @@ import org.jboss.logging.Logger;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import dev.suvera.scim2.schema.data.misc.PatchRequest;
 import dev.suvera.scim2.schema.data.user.UserRecord;
@@ -20,6 +19,7 @@ import dev.suvera.scim2.schema.data.user.UserRecord.UserEmail;
 import dev.suvera.scim2.schema.data.user.UserRecord.UserPhoneNumber;
 import dev.suvera.scim2.schema.data.user.UserRecord.UserRole;
 import dev.suvera.scim2.schema.enums.PatchOp;
+import dev.suvera.scim2.schema.util.ScimJson;
 import dev.suvera.scim2.schema.ScimConstant;
 import dev.suvera.scim2.schema.data.ExtensionRecord;
 
@@ -116,8 +116,7 @@ public class UserRecordPatchBuilder {
                     userRole.setDisplay(role.getDisplay());
                     userRole.setValue(role.getDisplay());
 
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    roleJson = objectMapper.writeValueAsString(userRole);
+                    roleJson = ScimJson.WRITER.writeValueAsString(userRole);
                     
                     Map<String, String> roleMap = new HashMap<>();
                     roleMap.put("value", roleJson);    
@@ -0,0 +1,114 @@
+package dev.suvera.scim2.client;
+
+import dev.suvera.scim2.schema.ScimConstant;
+import dev.suvera.scim2.schema.data.BaseRecord;
+import dev.suvera.scim2.schema.data.group.GroupRecord;
+import dev.suvera.scim2.schema.data.misc.*;
+import dev.suvera.scim2.schema.data.resource.ResourceType;
+import dev.suvera.scim2.schema.data.user.UserRecord;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link Scim2Client}. Requests are sent on OkHttp's dispatcher
+ * within the same endpoint limits and circuit breaker as the blocking calls, so independent
+ * requests can be in flight at the same time over one connection pool.
+ * <p>
+ * The futures complete exceptionally with a {@link dev.suvera.scim2.schema.ex.ScimException}
+ * where the blocking call would throw it. Cancelling a future cancels its HTTP call.
+ */
+@SuppressWarnings("unused")
+public interface AsyncScim2Client {
+
+    /**
+     * Same client, but every call fails with a ScimException when it has not completed
+     * within {@code deadline}, waiting for the endpoint limits included.
+     */
+    AsyncScim2Client withDeadline(Duration deadline);
+
+    <T extends BaseRecord> CompletableFuture<T> create(T record, ResourceType resourceType);
+
+    <T extends BaseRecord> CompletableFuture<T> read(String id, Class<T> cls, ResourceType resourceType);
+
+    <T extends BaseRecord> CompletableFuture<T> replace(String id, T record, ResourceType resourceType);
+
+    CompletableFuture<Void> delete(String id, ResourceType resourceType);
+
+    <T extends BaseRecord> CompletableFuture<PatchResponse<T>> patch(String id, PatchRequest<T> request, ResourceType resourceType);
+
+    <T extends BaseRecord> CompletableFuture<ListResponse<T>> search(SearchRequest request, Class<T> cls, ResourceType resourceType);
+
+    <T extends BaseRecord> CompletableFuture<ListResponse<T>> filter(String property, String value, Class<T> cls, ResourceType resourceType);
+
+    /**
+     * Following operations performed at root Level
+     */
+    CompletableFuture<MixedListResponse> search(SearchRequest request);
+
+    CompletableFuture<BulkResponse> bulk(BulkRequest request);
+
+    ResourceType getResourceType(String schemaId);
+
+    /**
+     * User operations
+     */
+    default CompletableFuture<UserRecord> createUser(UserRecord record) {
+        return create(record, getResourceType(ScimConstant.URN_USER));
+    }
+
+    default CompletableFuture<UserRecord> readUser(String id) {
+        return read(id, UserRecord.class, getResourceType(ScimConstant.URN_USER));
+    }
+
+    default CompletableFuture<UserRecord> replaceUser(String id, UserRecord record) {
+        return replace(id, record, getResourceType(ScimConstant.URN_USER));
+    }
+
+    default CompletableFuture<Void> deleteUser(String id) {
+        return delete(id, getResourceType(ScimConstant.URN_USER));
+    }
+
+    default CompletableFuture<PatchResponse<UserRecord>> patchUser(String id, PatchRequest<UserRecord> request) {
+        return patch(id, request, getResourceType(ScimConstant.URN_USER));
+    }
+
+    default CompletableFuture<ListResponse<UserRecord>> searchUser(SearchRequest request) {
+        return search(request, UserRecord.class, getResourceType(ScimConstant.URN_USER));
+    }
+
+    default CompletableFuture<ListResponse<UserRecord>> filterUser(String property, String value) {
+        return filter(property, value, UserRecord.class, getResourceType(ScimConstant.URN_USER));
+    }
+
+    /**
+     * Group operations
+     */
+    default CompletableFuture<GroupRecord> createGroup(GroupRecord record) {
+        return create(record, getResourceType(ScimConstant.URN_GROUP));
+    }
+
+    default CompletableFuture<GroupRecord> readGroup(String id) {
+        return read(id, GroupRecord.class, getResourceType(ScimConstant.URN_GROUP));
+    }
+
+    default CompletableFuture<GroupRecord> replaceGroup(String id, GroupRecord record) {
+        return replace(id, record, getResourceType(ScimConstant.URN_GROUP));
+    }
+
+    default CompletableFuture<Void> deleteGroup(String id) {
+        return delete(id, getResourceType(ScimConstant.URN_GROUP));
+    }
+
+    default CompletableFuture<PatchResponse<GroupRecord>> patchGroup(String id, PatchRequest<GroupRecord> request) {
+        return patch(id, request, getResourceType(ScimConstant.URN_GROUP));
+    }
+
+    default CompletableFuture<ListResponse<GroupRecord>> searchGroup(SearchRequest request) {
+        return search(request, GroupRecord.class, getResourceType(ScimConstant.URN_GROUP));
+    }
+
+    default CompletableFuture<ListResponse<GroupRecord>> filterGroup(String property, String value) {
+        return filter(property, value, GroupRecord.class, getResourceType(ScimConstant.URN_GROUP));
+    }
+}
@@ -0,0 +1,76 @@
+package dev.suvera.scim2.client;
+
+/**
+ * Health of one SCIM endpoint. The breaker opens after {@code failureThreshold} consecutive
+ * transport failures or 5xx responses and stays open for {@code openMillis}. Then a single
+ * caller gets to probe the endpoint: a success closes the breaker, a failure opens it again.
+ * A threshold of 0 never opens the breaker.
+ * <p>
+ * Only the last response of a request counts, a 503 that is sent again after its Retry-After
+ * does not.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Returns true for the one caller that should probe the endpoint now, moving the breaker
+     * to half open.
+     */
+    public synchronized boolean tryStartProbe() {
+        if (state != State.OPEN || System.currentTimeMillis() < openUntil) {
+            return false;
+        }
+        state = State.HALF_OPEN;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || (failureThreshold > 0 && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openMillis;
+        }
+    }
+
+    /**
+     * Whether requests should be held back, which is also the case while a probe is running.
+     */
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getOpenUntil() {
+        return state == State.CLOSED ? 0 : openUntil;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+}
@@ -0,0 +1,311 @@
+package dev.suvera.scim2.client;
+
+import dev.suvera.scim2.schema.ex.ScimException;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client side limits for the requests to one SCIM endpoint.
+ * <p>
+ * Concurrency follows AIMD: the window grows by one request per window of successful
+ * responses and halves on a 429, 503 or transport failure, between 1 and
+ * {@code maxConcurrency}. A token bucket additionally caps the request rate when
+ * {@code ratePerSecond} is positive. When the endpoint answers with Retry-After all requests
+ * to it wait until that time has passed.
+ */
+public class EndpointLimiter {
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+    private final int maxConcurrency;
+    private final double ratePerSecond;
+    private final double burst;
+    private final long maxPauseMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private boolean drainScheduled;
+
+    private double limit;
+    private int inFlight;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private long pausedUntil;
+    private double latencyMillis;
+    private long throttled;
+
+    public EndpointLimiter(int maxConcurrency, double ratePerSecond, long maxPauseMillis) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.ratePerSecond = Math.max(0, ratePerSecond);
+        this.burst = Math.max(1, this.ratePerSecond);
+        this.maxPauseMillis = Math.max(0, maxPauseMillis);
+        this.limit = this.maxConcurrency;
+        this.tokens = burst;
+    }
+
+    public static EndpointLimiter unlimited() {
+        return new EndpointLimiter(Integer.MAX_VALUE, 0, 0);
+    }
+
+    /**
+     * Waits until the endpoint is not paused and a request fits into the window and the rate.
+     */
+    public void acquire() throws ScimException {
+        lock.lock();
+        try {
+            while (true) {
+                long waitNanos = tryAcquire();
+                if (waitNanos == 0) {
+                    return;
+                }
+                if (waitNanos < 0) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(waitNanos);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScimException("Interrupted while waiting for the SCIM endpoint", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like {@link #acquire()}, but without blocking: the returned future completes once the
+     * slot is acquired. Cancelling the future gives up waiting.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        CompletableFuture<Void> slot = new CompletableFuture<>();
+        lock.lock();
+        try {
+            waiters.add(slot);
+        } finally {
+            lock.unlock();
+        }
+        drainWaiters();
+        return slot;
+    }
+
+    /**
+     * Hands free slots to the asynchronous waiters in arrival order. When only time frees a
+     * slot, another drain is scheduled for then.
+     */
+    private void drainWaiters() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            while (!waiters.isEmpty()) {
+                if (waiters.peek().isDone()) {
+                    waiters.poll();
+                    continue;
+                }
+
+                long waitNanos = tryAcquire();
+                if (waitNanos > 0 && !drainScheduled) {
+                    drainScheduled = true;
+                    CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS).execute(() -> {
+                        lock.lock();
+                        try {
+                            drainScheduled = false;
+                        } finally {
+                            lock.unlock();
+                        }
+                        drainWaiters();
+                    });
+                }
+                if (waitNanos != 0) {
+                    break;
+                }
+                granted.add(waiters.poll());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (CompletableFuture<Void> slot : granted) {
+            if (!slot.complete(null)) {
+                // cancelled while the slot was handed over
+                releaseUnused();
+            }
+        }
+    }
+
+    /**
+     * Releases a slot that was acquired but never used for a request.
+     */
+    void releaseUnused() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        drainWaiters();
+    }
+
+    /**
+     * Acquires a slot and returns 0, or returns how long to wait, negative when only a
+     * finished request can free a slot.
+     */
+    private long tryAcquire() {
+        long pause = pausedUntil - System.currentTimeMillis();
+        if (pause > 0) {
+            return TimeUnit.MILLISECONDS.toNanos(pause);
+        }
+        if (inFlight >= (int) limit) {
+            return -1;
+        }
+
+        if (ratePerSecond > 0) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+            lastRefillNanos = now;
+            if (tokens < 1) {
+                return Math.max(1, (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+            }
+            tokens--;
+        }
+
+        inFlight++;
+        return 0;
+    }
+
+    /**
+     * Releases the slot of a finished request and adapts the window to its outcome.
+     */
+    public void release(long elapsedNanos, boolean overloaded) {
+        lock.lock();
+        try {
+            inFlight--;
+
+            double elapsedMillis = elapsedNanos / 1_000_000.0;
+            latencyMillis = latencyMillis == 0
+                    ? elapsedMillis
+                    : latencyMillis + LATENCY_SMOOTHING * (elapsedMillis - latencyMillis);
+
+            if (overloaded) {
+                throttled++;
+                limit = Math.max(1, limit / 2);
+            } else {
+                limit = Math.min(maxConcurrency, limit + 1 / limit);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        drainWaiters();
+    }
+
+    /**
+     * Pauses all requests to the endpoint for the given time, if it is not above the maximum
+     * pause. Returns whether the pause was accepted.
+     */
+    public boolean pause(long millis) {
+        if (millis > maxPauseMillis) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + millis);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        drainWaiters();
+        return true;
+    }
+
+    /**
+     * Milliseconds to wait according to a Retry-After header value, either delay seconds or
+     * an HTTP date. Falls back to one second when the value is missing or invalid.
+     */
+    public static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            // not delay seconds, try an HTTP date
+        }
+
+        try {
+            long at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, at - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) Math.min(limit, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Exponentially weighted moving average of the response time.
+     */
+    public double getLatencyMillis() {
+        lock.lock();
+        try {
+            return latencyMillis;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getThrottled() {
+        lock.lock();
+        try {
+            return throttled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getPausedUntil() {
+        lock.lock();
+        try {
+            return pausedUntil;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+}
@@ -0,0 +1,53 @@
+package dev.suvera.scim2.client;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+
+/**
+ * Request body that writes the payload as JSON straight to the connection, without encoding it
+ * into a String first. The payload is written again when OkHttp sends the request more than
+ * once, so it must not change while the request is in use. A payload that cannot be encoded
+ * fails the call with an {@link EncodingException}, which tells it apart from a transport
+ * failure.
+ */
+public class JsonRequestBody extends RequestBody {
+    private final MediaType contentType;
+    private final ObjectWriter writer;
+    private final Object payload;
+
+    public JsonRequestBody(MediaType contentType, ObjectWriter writer, Object payload) {
+        this.contentType = contentType;
+        // the sink belongs to OkHttp
+        this.writer = writer.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.payload = payload;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        try {
+            writer.writeValue(sink.outputStream(), payload);
+        } catch (JsonProcessingException e) {
+            throw new EncodingException(e);
+        }
+    }
+
+    /**
+     * The payload cannot be encoded as JSON. Sending the request again will not help.
+     */
+    public static class EncodingException extends IOException {
+        EncodingException(JsonProcessingException cause) {
+            super("Could not encode request payload: " + cause.getOriginalMessage(), cause);
+        }
+    }
+}
@@ -19,6 +19,23 @@ import java.util.Collection;
 @SuppressWarnings("unused")
 public interface Scim2Client {
 
+    /**
+     * Sends a cheap request to the ServiceProviderConfig endpoint and returns whether the
+     * endpoint answered without a server error.
+     */
+    boolean probe();
+
+    /**
+     * Non-blocking view of this client, sharing its connection pool, endpoint limits and
+     * circuit breaker.
+     */
+    AsyncScim2Client async();
+
+    /**
+     * Closes idle connections and stops the dispatcher threads. Calls in flight complete.
+     */
+    void close();
+
     <T extends BaseRecord> T create(T record, ResourceType resourceType) throws ScimException;
 
     <T extends BaseRecord> T read(String id, Class<T> cls, ResourceType resourceType) throws ScimException;
@@ -14,6 +14,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
@@ -21,6 +22,11 @@ import java.io.IOException;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -34,44 +40,123 @@ public class Scim2ClientBuilder {
     private final String endPoint;
     private final OkHttpClient.Builder builder;
     private static final boolean DEBUG = true;
+    private static final int MAX_DISPATCHER_REQUESTS = 256;
     private boolean debugEnabled = false;
     private String spConfigJson;
     private String resourceTypesJson;
     private String schemasJson;
+    private EndpointLimiter limiter;
+    private CircuitBreaker circuitBreaker;
+    private int maxRequestsPerHost;
+
+    /**
+     * Interceptors and authenticator of SCIM requests. Token requests go through the same
+     * connection pool, but without them.
+     */
+    private final List<Interceptor> interceptors = new ArrayList<>();
+    private final List<Interceptor> networkInterceptors = new ArrayList<>();
+    private Authenticator authenticator;
+    private OkHttpClient tokenClient;
+    private SSLSocketFactory sslSocketFactory;
+    private X509TrustManager trustManager;
 
     public Scim2ClientBuilder(String endPoint) {
         this.endPoint = endPoint;
         builder = new OkHttpClient.Builder()
-                .connectTimeout(1200000, TimeUnit.SECONDS)
-                .readTimeout(1200000, TimeUnit.SECONDS);
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .writeTimeout(60, TimeUnit.SECONDS)
+                .callTimeout(120, TimeUnit.SECONDS);
 
         if (DEBUG) {
-            builder.networkInterceptors().add(new HttpLoggingInterceptor("NETWORK"));
-            builder.interceptors().add(new HttpLoggingInterceptor("APP"));
+            networkInterceptors.add(new HttpLoggingInterceptor("NETWORK"));
+            interceptors.add(new HttpLoggingInterceptor("APP"));
             debugEnabled = true;
         }
     }
 
     public Scim2Client build() throws ScimException {
-        return new Scim2ClientImpl(endPoint, builder.build(), spConfigJson, resourceTypesJson, schemasJson);
+        int perHost = maxRequestsPerHost > 0 ? maxRequestsPerHost : limiter != null ? limiter.getMaxConcurrency() : 0;
+        if (perHost > 0) {
+            // asynchronous calls are bounded by the endpoint, not by OkHttp's default of 5 per host
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(MAX_DISPATCHER_REQUESTS);
+            dispatcher.setMaxRequestsPerHost(Math.min(perHost, MAX_DISPATCHER_REQUESTS));
+            builder.dispatcher(dispatcher);
+        }
+
+        tokenClient = builder.build();
+
+        OkHttpClient.Builder scimBuilder = tokenClient.newBuilder();
+        scimBuilder.interceptors().addAll(interceptors);
+        scimBuilder.networkInterceptors().addAll(networkInterceptors);
+        if (authenticator != null) {
+            scimBuilder.authenticator(authenticator);
+        }
+        if (sslSocketFactory != null) {
+            // token requests keep verifying certificates
+            scimBuilder.sslSocketFactory(sslSocketFactory, trustManager);
+            scimBuilder.hostnameVerifier((hostname, session) -> true);
+        }
+
+        return new Scim2ClientImpl(endPoint, scimBuilder.build(), spConfigJson, resourceTypesJson, schemasJson, limiter, circuitBreaker);
     }
 
     public Scim2ClientBuilder enableDebugging() {
         if (!debugEnabled) {
-            builder.networkInterceptors().add(new HttpLoggingInterceptor("NETWORK"));
-            builder.interceptors().add(new HttpLoggingInterceptor("APP"));
+            networkInterceptors.add(new HttpLoggingInterceptor("NETWORK"));
+            interceptors.add(new HttpLoggingInterceptor("APP"));
             debugEnabled = true;
         }
         return this;
     }
 
+    /**
+     * Idle connections kept open to the endpoint and how long they are kept.
+     */
+    public Scim2ClientBuilder connectionPool(int maxIdleConnections, long keepAlive, TimeUnit unit) {
+        builder.connectionPool(new ConnectionPool(maxIdleConnections, keepAlive, unit));
+        return this;
+    }
+
+    /**
+     * Asynchronous requests sent to the endpoint at the same time. Defaults to the maximum
+     * concurrency of the limiter.
+     */
+    public Scim2ClientBuilder maxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        return this;
+    }
+
+    /**
+     * Connect, read and write timeouts, and the timeout of a whole call including redirects
+     * and authentication. A zero duration means no timeout.
+     */
+    public Scim2ClientBuilder timeouts(Duration connect, Duration read, Duration write, Duration call) {
+        builder.connectTimeout(connect)
+                .readTimeout(read)
+                .writeTimeout(write)
+                .callTimeout(call);
+        return this;
+    }
+
+    /**
+     * Whether HTTP/2 may be negotiated with the endpoint, otherwise only HTTP/1.1 is used.
+     */
+    public Scim2ClientBuilder http2(boolean enabled) {
+        builder.protocols(enabled
+                ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                : Collections.singletonList(Protocol.HTTP_1_1));
+        return this;
+    }
+
     public Scim2ClientBuilder usernamePassword(String username, String password) {
-        builder.authenticator(new BasicAuthenticator(username, password));
+        authenticator = new BasicAuthenticator(username, password);
         return this;
     }
 
     public Scim2ClientBuilder bearerToken(String token) {
-        builder.authenticator(new BearerAuthenticator(token));
+        authenticator = new BearerAuthenticator(token);
         return this;
     }
 
@@ -84,8 +169,6 @@ public class Scim2ClientBuilder {
                 @Override
                 public Token load(String key) throws Exception {
                     if (key.equals(tokenKey)) {
-                        OkHttpClient client = new OkHttpClient();
-
                         Builder builder = new FormBody.Builder();
 
                         if (clientId != null) {
@@ -112,20 +195,21 @@ public class Scim2ClientBuilder {
                         .post(body)
                         .build();
                         
-                        Response tokenResponse = client.newCall(tokenRequest).execute();
-                        if (!tokenResponse.isSuccessful()) {
-                            return null;
+                        try (Response tokenResponse = tokenClient.newCall(tokenRequest).execute()) {
+                            if (!tokenResponse.isSuccessful()) {
+                                return null;
+                            }
+
+                            ObjectMapper mapper = new ObjectMapper();
+                            return mapper.readValue(tokenResponse.body().string(), Token.class);
                         }
-    
-                        ObjectMapper mapper = new ObjectMapper();
-                        return mapper.readValue(tokenResponse.body().string(), Token.class);
                     }
                     return null;
                 }
             }
         );
 
-        builder.addInterceptor(new Interceptor() {
+        interceptors.add(new Interceptor() {
 
             @Override
             public Response intercept(Chain chain) throws IOException {
@@ -139,7 +223,7 @@ public class Scim2ClientBuilder {
 
         });
         
-        builder.authenticator(new Authenticator() {
+        authenticator = new Authenticator() {
 
             @Override
             @javax.annotation.Nullable
@@ -149,7 +233,7 @@ public class Scim2ClientBuilder {
                 return tokenRequest(tokenKey, tokenCache, response.request());
             }
             
-        });
+        };
         return this;
     }
 
@@ -169,6 +253,16 @@ public class Scim2ClientBuilder {
         return null;
     }
 
+    public Scim2ClientBuilder limiter(EndpointLimiter limiter) {
+        this.limiter = limiter;
+        return this;
+    }
+
+    public Scim2ClientBuilder circuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
     public Scim2ClientBuilder serviceProviderConfig(String spConfigJson) {
         this.spConfigJson = spConfigJson;
         return this;
@@ -210,8 +304,8 @@ public class Scim2ClientBuilder {
             TrustManager[] trustManagers = new TrustManager[]{trustAll};
 
             sslContext.init(null, trustManagers, new SecureRandom());
-            builder.sslSocketFactory(sslContext.getSocketFactory(), (X509TrustManager) trustManagers[0]);
-            builder.hostnameVerifier((hostname, session) -> true);
+            sslSocketFactory = sslContext.getSocketFactory();
+            trustManager = (X509TrustManager) trustManagers[0];
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -1,13 +1,11 @@
 package dev.suvera.scim2.client;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JavaType;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.JsonNode;
 import dev.suvera.scim2.schema.ScimConstant;
 import dev.suvera.scim2.schema.data.BaseRecord;
+import dev.suvera.scim2.schema.data.ErrorRecord;
 import dev.suvera.scim2.schema.data.ScimResponse;
 import dev.suvera.scim2.schema.data.misc.*;
 import dev.suvera.scim2.schema.data.resource.ResourceType;
@@ -17,8 +15,10 @@ import dev.suvera.scim2.schema.enums.HttpMethod;
 import dev.suvera.scim2.schema.enums.ScimOperation;
 import dev.suvera.scim2.schema.ex.ScimException;
 import dev.suvera.scim2.schema.util.Scim2Protocol;
+import dev.suvera.scim2.schema.util.ScimJson;
 import dev.suvera.scim2.schema.util.UrlUtil;
 import lombok.Data;
+import lombok.Value;
 import okhttp3.*;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -26,7 +26,12 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static dev.suvera.scim2.schema.ScimConstant.*;
 
@@ -38,15 +43,29 @@ import static dev.suvera.scim2.schema.ScimConstant.*;
 @Data
 public class Scim2ClientImpl implements Scim2Client {
     private final static Logger log = LogManager.getLogger(Scim2ClientImpl.class);
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final MediaType SCIM_JSON = MediaType.parse("application/scim+json");
     private static final boolean DEBUG = false;
 
+    /**
+     * Requests answered with 429 or 503 are sent again at most this often after waiting for
+     * their Retry-After.
+     */
+    private static final int MAX_THROTTLED_ATTEMPTS = 5;
+
+    /**
+     * Fails asynchronous calls whose deadline has passed. Cancelled deadlines are removed
+     * from the queue right away.
+     */
+    private static final ScheduledThreadPoolExecutor DEADLINES = createDeadlineScheduler();
+
     private String endPoint;
     private OkHttpClient client;
     private Scim2Protocol protocol;
     private String spConfigJson;
     private String resourceTypesJson;
     private String schemasJson;
+    private EndpointLimiter limiter = EndpointLimiter.unlimited();
+    private CircuitBreaker circuitBreaker = new CircuitBreaker(0, 0);
 
     protected Scim2ClientImpl(String endPoint, OkHttpClient client) throws ScimException {
         init(endPoint, client);
@@ -58,12 +77,46 @@ public class Scim2ClientImpl implements Scim2Client {
             String spConfigJson,
             String resourceTypesJson,
             String schemasJson) throws ScimException {
+        this(endPoint, client, spConfigJson, resourceTypesJson, schemasJson, null, null);
+    }
+
+    protected Scim2ClientImpl(
+            String endPoint,
+            OkHttpClient client,
+            String spConfigJson,
+            String resourceTypesJson,
+            String schemasJson,
+            EndpointLimiter limiter,
+            CircuitBreaker circuitBreaker) throws ScimException {
+        if (limiter != null) {
+            this.limiter = limiter;
+        }
+        if (circuitBreaker != null) {
+            this.circuitBreaker = circuitBreaker;
+        }
         this.spConfigJson = spConfigJson;
         this.resourceTypesJson = resourceTypesJson;
         this.schemasJson = schemasJson;
         init(endPoint, client);
     }
 
+    private static ScheduledThreadPoolExecutor createDeadlineScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "scim2-client-deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Number of deadlines of asynchronous calls that are still queued.
+     */
+    static int getPendingDeadlines() {
+        return DEADLINES.getQueue().size();
+    }
+
     private void init(String endPoint, OkHttpClient client) throws ScimException {
         endPoint = StringUtils.stripEnd(endPoint, " /");
 
@@ -148,6 +201,13 @@ public class Scim2ClientImpl implements Scim2Client {
             HttpMethod method,
             String path,
             Object payload) throws ScimException {
+        return execute(buildRequest(method, path, payload));
+    }
+
+    private Request buildRequest(
+            HttpMethod method,
+            String path,
+            Object payload) throws ScimException {
         if (path == null) {
             throw new ScimException("Client Exception, empty Path");
         }
@@ -167,81 +227,229 @@ public class Scim2ClientImpl implements Scim2Client {
                 .url(endPoint + path)
                 .header("X-Requested-With", CLIENT_NAME);
 
-        String body = null;
-        if (payload != null) {
-            if (payload instanceof String) {
-                body = payload.toString();
-            } else {
-                objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-                try {
-                    body = objectMapper.writeValueAsString(payload);
-                } catch (JsonProcessingException e) {
-                    throw new ScimException("Failed whole encoding object to JSON", e);
-                }
+        RequestBody body = null;
+        if (payload instanceof String) {
+            if (!((String) payload).isEmpty()) {
+                body = RequestBody.create(SCIM_JSON, (String) payload);
             }
+        } else if (payload != null) {
+            body = new JsonRequestBody(SCIM_JSON, ScimJson.payloadWriter(payload.getClass()), payload);
         }
 
         if (HttpMethod.DELETE.equals(method)) {
-            if (body != null && !body.isEmpty()) {
-                builder.delete(RequestBody.create(MediaType.parse("application/scim+json"), body));
+            if (body != null) {
+                builder.delete(body);
             } else {
                 builder.header(CONTENT_TYPE, "application/scim+json").delete();
             }
         } else if (HttpMethod.PUT.equals(method)) {
-            if (body == null) {
-                body = "";
-            }
-            builder.put(RequestBody.create(MediaType.parse("application/scim+json"), body));
+            builder.put(body != null ? body : RequestBody.create(SCIM_JSON, ""));
         } else if (HttpMethod.PATCH.equals(method)) {
-            if (body == null) {
-                body = "";
-            }
-            builder.patch(RequestBody.create(MediaType.parse("application/scim+json"), body));
+            builder.patch(body != null ? body : RequestBody.create(SCIM_JSON, ""));
         } else if (!HttpMethod.GET.equals(method)) {
-            if (body == null) {
-                body = "";
+            builder.post(body != null ? body : RequestBody.create(SCIM_JSON, ""));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Sends the request within the limits of the endpoint. A 429 or 503 pauses all requests
+     * to the endpoint for its Retry-After and the request is sent again, unless the endpoint
+     * asks for a longer pause than the limiter allows or keeps refusing. Transport failures
+     * and 5xx responses count against the circuit breaker, any other response resets it.
+     * A throttled response that is sent again is left out: the endpoint is busy, not broken.
+     * A payload that cannot be encoded counts against neither and fails without a retry.
+     */
+    private Response execute(Request request) throws ScimException {
+        for (int attempt = 1; ; attempt++) {
+            limiter.acquire();
+
+            long start = System.nanoTime();
+            Response response;
+            try {
+                response = client.newCall(request).execute();
+            } catch (JsonRequestBody.EncodingException e) {
+                limiter.releaseUnused();
+                throw encodingError(request, e);
+            } catch (IOException e) {
+                limiter.release(System.nanoTime() - start, true);
+                circuitBreaker.onFailure();
+                throw new ScimException("Could not send HTTP request to scim2 service", e);
+            }
+
+            boolean throttled = releaseSlot(response, start);
+            if (throttled && attempt < MAX_THROTTLED_ATTEMPTS && pauseForRetry(response)) {
+                continue;
             }
-            builder.post(RequestBody.create(MediaType.parse("application/scim+json"), body));
+
+            recordOutcome(response);
+            return response;
         }
+    }
 
-        Request request = builder.build();
-        Call call = client.newCall(request);
-        Response response;
-        try {
-            response = call.execute();
-        } catch (IOException e) {
-            throw new ScimException("Could not send HTTP request to scim2 service", e);
+    private static ScimException encodingError(Request request, JsonRequestBody.EncodingException e) {
+        return new ScimException("Http " + request.method() + " " + request.url().encodedPath()
+                + " failed, " + e.getMessage(), e, false);
+    }
+
+    /**
+     * Releases the limiter slot of a response and returns whether the endpoint throttled the
+     * request.
+     */
+    private boolean releaseSlot(Response response, long startNanos) {
+        boolean throttled = response.code() == 429 || response.code() == HttpURLConnection.HTTP_UNAVAILABLE;
+        limiter.release(System.nanoTime() - startNanos, throttled);
+        return throttled;
+    }
+
+    /**
+     * Records the final response of a request with the circuit breaker.
+     */
+    private void recordOutcome(Response response) {
+        if (response.code() >= 500) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    /**
+     * Pauses the endpoint for the Retry-After of a throttled response and closes it, or
+     * returns false when the pause is too long.
+     */
+    private boolean pauseForRetry(Response response) {
+        long retryAfter = EndpointLimiter.parseRetryAfter(response.header("Retry-After"));
+        if (!limiter.pause(retryAfter)) {
+            log.warn("SCIM endpoint {} asked to retry after {} ms, giving up the request", endPoint, retryAfter);
+            return false;
         }
 
-        return response;
+        log.info("SCIM endpoint {} answered {}, pausing requests for {} ms. Concurrency limit {} of {}, {} in flight, "
+                        + "{} throttled responses, average latency {} ms", endPoint, response.code(), retryAfter,
+                limiter.getLimit(), limiter.getMaxConcurrency(), limiter.getInFlight(), limiter.getThrottled(),
+                Math.round(limiter.getLatencyMillis()));
+        response.close();
+        return true;
     }
 
-    @Override
-    public <T extends BaseRecord> T create(T record, ResourceType resourceType) throws ScimException {
-        ScimResponse response = ScimResponse.of(doRequest(
-                HttpMethod.POST,
-                resourceType.getEndPoint(),
-                record));
+    /**
+     * Turns the response of an exchange into its result and closes it.
+     */
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(Response response) throws ScimException;
+    }
+
+    @FunctionalInterface
+    private interface ExchangeFactory<T> {
+        Exchange<T> create() throws ScimException;
+    }
 
-        /*
-         * protocol.validateResponse(
-         * ScimOperation.CREATE,
-         * response,
-         * resourceType,
-         * null
-         * );
-         */
+    /**
+     * One SCIM operation: the request to send and how to read its response. Shared by the
+     * blocking and the asynchronous client.
+     */
+    @Value
+    private static class Exchange<T> {
+        HttpMethod method;
+        String path;
+        Object payload;
+        ResponseHandler<T> handler;
+    }
 
-        // noinspection unchecked
-        return (T) mapToObject(response.getBody(), record.getClass());
+    private <T> T call(Exchange<T> exchange) throws ScimException {
+        return exchange.getHandler().handle(doRequest(exchange.getMethod(), exchange.getPath(), exchange.getPayload()));
     }
 
-    private <T extends BaseRecord> T mapToObject(String value, Class<T> cls) throws ScimException {
+    /**
+     * Handler that throws a {@link ScimException} with the status and SCIM error of a 4xx or
+     * 5xx response, and otherwise decodes the body with the reader.
+     */
+    private <T> ResponseHandler<T> checked(HttpMethod method, String path, ObjectReader reader, String failure) {
+        return response -> {
+            try (response) {
+                if (response.code() >= 400) {
+                    throw error(method, path, ScimResponse.of(response));
+                }
+                return decode(response, reader, failure);
+            }
+        };
+    }
+
+    /**
+     * Decodes the body straight from the response stream. It is only read into a String when
+     * debug logging shows it.
+     */
+    private static <T> T decode(Response response, ObjectReader reader, String failure) throws ScimException {
+        ResponseBody body = response.body();
+        if (body == null) {
+            throw new ScimException(failure + ", the response has no body");
+        }
+
         try {
-            return objectMapper.readValue(value, cls);
+            if (log.isDebugEnabled()) {
+                String json = body.string();
+                log.debug("Http response {}", json);
+                return reader.readValue(json);
+            }
+            return reader.readValue(body.byteStream());
         } catch (JsonProcessingException e) {
-            throw new ScimException("Could not map json to object " + cls.getName(), e);
+            throw new ScimException(failure, e);
+        } catch (IOException e) {
+            throw new ScimException("Http Client error", e);
+        }
+    }
+
+    private ScimException error(HttpMethod method, String path, ScimResponse response) {
+        ErrorRecord error = null;
+        if (response.getBody() != null && !response.getBody().isEmpty()) {
+            try {
+                error = ScimJson.ERROR_READER.readValue(response.getBody());
+            } catch (JsonProcessingException e) {
+                error = new ErrorRecord(response.getCode(), response.getBody());
+            }
         }
+        return new ScimException("Http " + method + " " + path + " failed with status " + response.getCode(), error,
+                response.getCode());
+    }
+
+    @Override
+    public boolean probe() {
+        try (Response response = doRequest(HttpMethod.GET, PATH_SP, null)) {
+            return response.code() < 500;
+        } catch (ScimException e) {
+            log.info("Probe of {} failed: {}", endPoint, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public AsyncScim2Client async() {
+        return new Async(null);
+    }
+
+    @Override
+    public void close() {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    private <T extends BaseRecord> Exchange<T> createExchange(T record, ResourceType resourceType) {
+        String path = resourceType.getEndPoint();
+        return new Exchange<>(HttpMethod.POST, path, record, checked(HttpMethod.POST, path,
+                ScimJson.reader(record.getClass()), "Could not map json to object " + record.getClass().getName()));
+    }
+
+    @Override
+    public <T extends BaseRecord> T create(T record, ResourceType resourceType) throws ScimException {
+        return call(createExchange(record, resourceType));
+    }
+
+    private <T extends BaseRecord> Exchange<T> readExchange(String id, Class<T> cls, ResourceType resourceType) {
+        String path = StringUtils.stripEnd(resourceType.getEndPoint(), " /") + "/" + id;
+        return new Exchange<>(HttpMethod.GET, path, null, checked(HttpMethod.GET, path,
+                ScimJson.reader(cls), "Could not map json to object " + cls.getName()));
     }
 
     @Override
@@ -249,24 +457,13 @@ public class Scim2ClientImpl implements Scim2Client {
             String id,
             Class<T> cls,
             ResourceType resourceType) throws ScimException {
+        return call(readExchange(id, cls, resourceType));
+    }
 
-        String path = resourceType.getEndPoint();
-        path = StringUtils.stripEnd(path, " /");
-        ScimResponse response = ScimResponse.of(doRequest(
-                HttpMethod.GET,
-                path + "/" + id,
-                null));
-
-        /*
-         * protocol.validateResponse(
-         * ScimOperation.READ,
-         * response,
-         * resourceType,
-         * null
-         * );
-         */
-
-        return mapToObject(response.getBody(), cls);
+    private <T extends BaseRecord> Exchange<T> replaceExchange(String id, T record, ResourceType resourceType) {
+        String path = StringUtils.stripEnd(resourceType.getEndPoint(), " /") + "/" + id;
+        return new Exchange<>(HttpMethod.PUT, path, record, checked(HttpMethod.PUT, path,
+                ScimJson.reader(record.getClass()), "Could not map json to object " + record.getClass().getName()));
     }
 
     @Override
@@ -274,45 +471,28 @@ public class Scim2ClientImpl implements Scim2Client {
             String id,
             T record,
             ResourceType resourceType) throws ScimException {
-        String path = resourceType.getEndPoint();
-        path = StringUtils.stripEnd(path, " /");
-        ScimResponse response = ScimResponse.of(doRequest(
-                HttpMethod.PUT,
-                path + "/" + id,
-                record));
-
-        // protocol.validateResponse(
-        // ScimOperation.REPLACE,
-        // response,
-        // resourceType,
-        // null
-        // );
+        return call(replaceExchange(id, record, resourceType));
+    }
 
-        // noinspection unchecked
-        return (T) mapToObject(response.getBody(), record.getClass());
+    private Exchange<Void> deleteExchange(String id, ResourceType resourceType) {
+        String path = StringUtils.stripEnd(resourceType.getEndPoint(), " /");
+        return new Exchange<>(HttpMethod.DELETE, path + "/" + id, null, response -> {
+            try (response) {
+                // a resource that is already gone is deleted as well
+                if (response.code() >= 400 && response.code() != HttpURLConnection.HTTP_NOT_FOUND) {
+                    throw error(HttpMethod.DELETE, path, ScimResponse.of(response));
+                }
+                return null;
+            }
+        });
     }
 
     @Override
     public void delete(String id, ResourceType resourceType) throws ScimException {
-        String path = resourceType.getEndPoint();
-        path = StringUtils.stripEnd(path, " /");
-        ScimResponse response = ScimResponse.of(doRequest(
-                HttpMethod.DELETE,
-                path + "/" + id,
-                null));
-
-        /*
-         * protocol.validateResponse(
-         * ScimOperation.DELETE,
-         * response,
-         * resourceType,
-         * null
-         * );
-         */
+        call(deleteExchange(id, resourceType));
     }
 
-    @Override
-    public <T extends BaseRecord> PatchResponse<T> patch(
+    private <T extends BaseRecord> Exchange<PatchResponse<T>> patchExchange(
             String id,
             PatchRequest<T> request,
             ResourceType resourceType) throws ScimException {
@@ -321,33 +501,47 @@ public class Scim2ClientImpl implements Scim2Client {
             throw new ScimException("Patch Operation is not supported by Service Provider");
         }
 
-        String path = resourceType.getEndPoint();
-        path = StringUtils.stripEnd(path, " /");
-        ScimResponse response = ScimResponse.of(doRequest(
-                HttpMethod.PATCH,
-                path + "/" + id,
-                request));
+        String path = StringUtils.stripEnd(resourceType.getEndPoint(), " /");
+        ObjectReader reader = ScimJson.reader(request.getRecordType());
+        return new Exchange<>(HttpMethod.PATCH, path + "/" + id, request, response -> {
+            try (response) {
+                if (response.code() < 200 || response.code() >= 300) {
+                    throw error(HttpMethod.PATCH, path, ScimResponse.of(response));
+                }
 
-        // protocol.validateResponse(
-        // ScimOperation.PATCH,
-        // response,
-        // resourceType,
-        // null
-        // );
+                PatchResponse<T> patchResponse = new PatchResponse<>(request.getRecordType());
 
-        PatchResponse<T> patchResponse = new PatchResponse<>(request.getRecordType());
+                patchResponse.setStatus(response.code());
 
-        patchResponse.setStatus(response.getCode());
+                if (response.code() != HttpURLConnection.HTTP_NO_CONTENT) {
+                    try {
+                        patchResponse.setResource(decode(response, reader,
+                                "Could not map json to object " + request.getRecordType().getName()));
+                    } catch (ScimException e) {
+                        log.error("Patch request has no Resource received. {}", e);
+                    }
+                }
 
-        if (response.getCode() != HttpURLConnection.HTTP_NO_CONTENT) {
-            try {
-                patchResponse.setResource(mapToObject(response.getBody(), request.getRecordType()));
-            } catch (ScimException e) {
-                log.error("Patch request has no Resource received. {}", e);
+                return patchResponse;
             }
-        }
+        });
+    }
 
-        return patchResponse;
+    @Override
+    public <T extends BaseRecord> PatchResponse<T> patch(
+            String id,
+            PatchRequest<T> request,
+            ResourceType resourceType) throws ScimException {
+        return call(patchExchange(id, request, resourceType));
+    }
+
+    private <T extends BaseRecord> Exchange<ListResponse<T>> searchExchange(
+            SearchRequest request,
+            Class<T> cls,
+            ResourceType resourceType) {
+        String path = StringUtils.stripEnd(resourceType.getEndPoint(), " /") + PATH_SEARCH;
+        return new Exchange<>(HttpMethod.POST, path, request, checked(HttpMethod.POST, path,
+                ScimJson.listReader(cls), "Could not parse search response for " + resourceType.getName()));
     }
 
     @Override
@@ -355,31 +549,18 @@ public class Scim2ClientImpl implements Scim2Client {
             SearchRequest request,
             Class<T> cls,
             ResourceType resourceType) throws ScimException {
-        String path = resourceType.getEndPoint();
-        path = StringUtils.stripEnd(path, " /");
-
-        ScimResponse response = ScimResponse.of(doRequest(
-                HttpMethod.POST,
-                path + PATH_SEARCH,
-                request));
-
-        // protocol.validateResponse(
-        // ScimOperation.SEARCH,
-        // response,
-        // resourceType,
-        // cls
-        // );
-
-        ListResponse<T> listResponse;
-        try {
-            JavaType type = objectMapper.getTypeFactory().constructParametricType(ListResponse.class, cls);
-
-            listResponse = objectMapper.readValue(response.getBody(), type);
-        } catch (JsonProcessingException e) {
-            throw new ScimException("Could not parse search response for " + resourceType.getName(), e);
-        }
+        return call(searchExchange(request, cls, resourceType));
+    }
 
-        return listResponse;
+    private <T extends BaseRecord> Exchange<ListResponse<T>> filterExchange(
+            String property,
+            String value,
+            Class<T> cls,
+            ResourceType resourceType) {
+        String path = StringUtils.stripEnd(resourceType.getEndPoint(), " /")
+                + "?filter=" + property + "+eq+%22" + value + "%22";
+        return new Exchange<>(HttpMethod.GET, path, null, checked(HttpMethod.GET, path,
+                ScimJson.listReader(cls), "Could not parse search response for " + resourceType.getName()));
     }
 
     @Override
@@ -388,77 +569,223 @@ public class Scim2ClientImpl implements Scim2Client {
             String value,
             Class<T> cls,
             ResourceType resourceType) throws ScimException {
-        String path = resourceType.getEndPoint();
-        path = StringUtils.stripEnd(path, " /");
-
-        ScimResponse response = ScimResponse.of(doRequest(
-                HttpMethod.GET,
-                path + "?filter=" + property + "+eq+%22" + value + "%22",
-                null));
-
-        /*
-         * protocol.validateResponse(
-         * ScimOperation.SEARCH,
-         * response,
-         * resourceType,
-         * cls
-         * );
-         */
-
-        ListResponse<T> listResponse;
-        try {
-            JavaType type = objectMapper.getTypeFactory().constructParametricType(ListResponse.class, cls);
-
-            listResponse = objectMapper.readValue(response.getBody(), type);
-        } catch (JsonProcessingException e) {
-            throw new ScimException("Could not parse search response for " + resourceType.getName(), e);
-        }
+        return call(filterExchange(property, value, cls, resourceType));
+    }
 
-        return listResponse;
+    private Exchange<MixedListResponse> searchExchange(SearchRequest request) {
+        return new Exchange<>(HttpMethod.POST, PATH_SEARCH, request, checked(HttpMethod.POST, PATH_SEARCH,
+                ScimJson.MIXED_LIST_READER, "Could not map json to object for BulkResponse"));
     }
 
     @Override
     public MixedListResponse search(SearchRequest request) throws ScimException {
-        ScimResponse response = ScimResponse.of(doRequest(
-                HttpMethod.POST,
-                PATH_SEARCH,
-                request));
-
-        // protocol.validateResponse(
-        // ScimOperation.SEARCH,
-        // response,
-        // null,
-        // null
-        // );
+        return call(searchExchange(request));
+    }
 
-        try {
-            return objectMapper.readValue(response.getBody(), MixedListResponse.class);
-        } catch (JsonProcessingException e) {
-            throw new ScimException("Could not map json to object for BulkResponse", e);
+    private Exchange<BulkResponse> bulkExchange(BulkRequest request) throws ScimException {
+        if (!protocol.getSp().getBulk().getSupported()) {
+            throw new ScimException("Bulk Operation is not supported by Service Provider");
         }
+        return new Exchange<>(HttpMethod.POST, PATH_BULK, request, checked(HttpMethod.POST, PATH_BULK,
+                ScimJson.BULK_RESPONSE_READER, "Could not map json to object for BulkResponse"));
     }
 
     @Override
     public BulkResponse bulk(BulkRequest request) throws ScimException {
-        if (!protocol.getSp().getBulk().getSupported()) {
-            throw new ScimException("Bulk Operation is not supported by Service Provider");
-        }
-        ScimResponse response = ScimResponse.of(doRequest(
-                HttpMethod.POST,
-                PATH_BULK,
-                request));
+        return call(bulkExchange(request));
+    }
 
-        // protocol.validateResponse(
-        // ScimOperation.BULK,
-        // response,
-        // null,
-        // null
-        // );
+    /**
+     * Sends the exchange on OkHttp's dispatcher. The returned future fails once the deadline
+     * has passed, and cancelling it or failing it cancels the HTTP call.
+     */
+    private <T> CompletableFuture<T> callAsync(ExchangeFactory<T> factory, Duration deadline) {
+        CompletableFuture<T> result = new CompletableFuture<>();
 
+        Exchange<T> exchange;
+        Request request;
         try {
-            return objectMapper.readValue(response.getBody(), BulkResponse.class);
-        } catch (JsonProcessingException e) {
-            throw new ScimException("Could not map json to object for BulkResponse", e);
+            exchange = factory.create();
+            request = buildRequest(exchange.getMethod(), exchange.getPath(), exchange.getPayload());
+        } catch (ScimException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        AsyncCall<T> call = new AsyncCall<>(request, exchange, result);
+        result.whenComplete((value, e) -> {
+            if (e != null) {
+                call.cancel();
+            }
+        });
+        if (deadline != null) {
+            ScheduledFuture<?> timeout = DEADLINES.schedule(() ->
+                    result.completeExceptionally(new ScimException("Http " + exchange.getMethod() + " "
+                            + exchange.getPath() + " did not complete within " + deadline)),
+                    deadline.toMillis(), TimeUnit.MILLISECONDS);
+            // a completed call must not keep its deadline queued until it passes
+            result.whenComplete((value, e) -> timeout.cancel(false));
+        }
+
+        call.start();
+        return result;
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #execute(Request)}: waits for a slot of the limiter
+     * without blocking, enqueues the call and sends it again after a Retry-After pause.
+     */
+    private class AsyncCall<T> implements Callback {
+        private final Request request;
+        private final Exchange<T> exchange;
+        private final CompletableFuture<T> result;
+
+        private volatile CompletableFuture<Void> slot;
+        private volatile Call call;
+        private volatile long startNanos;
+        private int attempt;
+
+        AsyncCall(Request request, Exchange<T> exchange, CompletableFuture<T> result) {
+            this.request = request;
+            this.exchange = exchange;
+            this.result = result;
+        }
+
+        void start() {
+            attempt++;
+            CompletableFuture<Void> acquired = limiter.acquireAsync();
+            slot = acquired;
+            acquired.thenRun(this::send);
+            if (result.isDone()) {
+                acquired.cancel(false);
+            }
+        }
+
+        private void send() {
+            if (result.isDone()) {
+                limiter.releaseUnused();
+                return;
+            }
+
+            startNanos = System.nanoTime();
+            Call newCall = client.newCall(request);
+            call = newCall;
+            newCall.enqueue(this);
+            if (result.isDone()) {
+                newCall.cancel();
+            }
+        }
+
+        void cancel() {
+            CompletableFuture<Void> acquired = slot;
+            if (acquired != null) {
+                acquired.cancel(false);
+            }
+            Call current = call;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void onFailure(Call failed, IOException e) {
+            if (e instanceof JsonRequestBody.EncodingException) {
+                limiter.releaseUnused();
+                result.completeExceptionally(encodingError(request, (JsonRequestBody.EncodingException) e));
+                return;
+            }
+            if (failed.isCanceled()) {
+                limiter.releaseUnused();
+                result.completeExceptionally(new ScimException("HTTP request to scim2 service was cancelled", e));
+                return;
+            }
+
+            limiter.release(System.nanoTime() - startNanos, true);
+            circuitBreaker.onFailure();
+            result.completeExceptionally(new ScimException("Could not send HTTP request to scim2 service", e));
+        }
+
+        @Override
+        public void onResponse(Call responded, Response response) {
+            boolean throttled = releaseSlot(response, startNanos);
+            if (throttled && attempt < MAX_THROTTLED_ATTEMPTS && !result.isDone() && pauseForRetry(response)) {
+                start();
+                return;
+            }
+
+            recordOutcome(response);
+
+            try {
+                result.complete(exchange.getHandler().handle(response));
+            } catch (ScimException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * {@link AsyncScim2Client} view of this client with an optional deadline for every call.
+     */
+    private class Async implements AsyncScim2Client {
+        private final Duration deadline;
+
+        Async(Duration deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public AsyncScim2Client withDeadline(Duration deadline) {
+            return new Async(deadline);
+        }
+
+        @Override
+        public <T extends BaseRecord> CompletableFuture<T> create(T record, ResourceType resourceType) {
+            return callAsync(() -> createExchange(record, resourceType), deadline);
+        }
+
+        @Override
+        public <T extends BaseRecord> CompletableFuture<T> read(String id, Class<T> cls, ResourceType resourceType) {
+            return callAsync(() -> readExchange(id, cls, resourceType), deadline);
+        }
+
+        @Override
+        public <T extends BaseRecord> CompletableFuture<T> replace(String id, T record, ResourceType resourceType) {
+            return callAsync(() -> replaceExchange(id, record, resourceType), deadline);
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(String id, ResourceType resourceType) {
+            return callAsync(() -> deleteExchange(id, resourceType), deadline);
+        }
+
+        @Override
+        public <T extends BaseRecord> CompletableFuture<PatchResponse<T>> patch(String id, PatchRequest<T> request, ResourceType resourceType) {
+            return callAsync(() -> patchExchange(id, request, resourceType), deadline);
+        }
+
+        @Override
+        public <T extends BaseRecord> CompletableFuture<ListResponse<T>> search(SearchRequest request, Class<T> cls, ResourceType resourceType) {
+            return callAsync(() -> searchExchange(request, cls, resourceType), deadline);
+        }
+
+        @Override
+        public <T extends BaseRecord> CompletableFuture<ListResponse<T>> filter(String property, String value, Class<T> cls, ResourceType resourceType) {
+            return callAsync(() -> filterExchange(property, value, cls, resourceType), deadline);
+        }
+
+        @Override
+        public CompletableFuture<MixedListResponse> search(SearchRequest request) {
+            return callAsync(() -> searchExchange(request), deadline);
+        }
+
+        @Override
+        public CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+            return callAsync(() -> bulkExchange(request), deadline);
+        }
+
+        @Override
+        public ResourceType getResourceType(String schemaId) {
+            return Scim2ClientImpl.this.getResourceType(schemaId);
         }
     }
 
@@ -491,9 +818,7 @@ public class Scim2ClientImpl implements Scim2Client {
         boolean valid = true;
         JsonNode jsonNode = null;
         try {
-            objectMapper.enable(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
-            objectMapper.enable(DeserializationFeature.FAIL_ON_READING_DUP_TREE_KEY);
-            jsonNode = objectMapper.readTree(json);
+            jsonNode = ScimJson.STRICT_TREE_READER.readTree(json);
             if (!jsonNode.isObject()) {
                 log.error("Input is not a valid object structure");
                 valid = false;
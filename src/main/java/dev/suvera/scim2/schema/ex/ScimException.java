@@ -9,6 +9,8 @@ import dev.suvera.scim2.schema.data.ErrorRecord;
 @SuppressWarnings("unused")
 public class ScimException extends Exception {
     private ErrorRecord error;
+    private int status;
+    private boolean retryable = true;
 
     public ScimException(ErrorRecord error) {
         this(error.toString());
@@ -23,10 +25,30 @@ public class ScimException extends Exception {
         this((error != null) ? message + ". Scim Error: " + error.toString() : message);
     }
 
+    /**
+     * Error for an HTTP response of the SCIM service provider. Whether it is retryable
+     * follows from the status, see {@link #isRetryableStatus(int)}.
+     */
+    public ScimException(String message, ErrorRecord error, int status) {
+        this(message, error);
+        this.error = error;
+        this.status = status;
+        this.retryable = isRetryableStatus(status);
+    }
+
     public ScimException(String message, Throwable cause) {
         super(message, cause);
     }
 
+    /**
+     * Error without a response of the SCIM service provider, e.g. for a request that could not
+     * be built.
+     */
+    public ScimException(String message, Throwable cause, boolean retryable) {
+        super(message, cause);
+        this.retryable = retryable;
+    }
+
     public ScimException(Exception e) {
         super(e.getMessage(), e);
     }
@@ -34,4 +56,27 @@ public class ScimException extends Exception {
     public ErrorRecord getError() {
         return error;
     }
+
+    /**
+     * HTTP status of the response, or 0 when no response was received.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Whether the same request may succeed later. True unless the service provider answered
+     * with a status that will not change on its own, such as 400 or 404.
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    public boolean isConflict() {
+        return status == 409;
+    }
+
+    public static boolean isRetryableStatus(int status) {
+        return status == 408 || status == 425 || status == 429 || (status >= 500 && status != 501 && status != 505);
+    }
 }
@@ -0,0 +1,111 @@
+package dev.suvera.scim2.schema.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import dev.suvera.scim2.schema.data.ErrorRecord;
+import dev.suvera.scim2.schema.data.group.GroupRecord;
+import dev.suvera.scim2.schema.data.misc.BulkResponse;
+import dev.suvera.scim2.schema.data.misc.ListResponse;
+import dev.suvera.scim2.schema.data.misc.MixedListResponse;
+import dev.suvera.scim2.schema.data.misc.PatchRequest;
+import dev.suvera.scim2.schema.data.user.UserRecord;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Readers and writers of SCIM records. The mapper is configured once when the class loads and
+ * never changed afterwards, so all readers and writers are immutable and can be shared by any
+ * number of threads. Settings that differ per use, like NON_NULL inclusion of request payloads,
+ * are baked into their own reader or writer instead of being set on the mapper.
+ */
+public final class ScimJson {
+    private static final JsonMapper mapper = JsonMapper.builder().build();
+
+    public static final ObjectReader USER_READER = mapper.readerFor(UserRecord.class);
+    public static final ObjectReader GROUP_READER = mapper.readerFor(GroupRecord.class);
+    public static final ObjectReader BULK_RESPONSE_READER = mapper.readerFor(BulkResponse.class);
+    public static final ObjectReader MIXED_LIST_READER = mapper.readerFor(MixedListResponse.class);
+    public static final ObjectReader ERROR_READER = mapper.readerFor(ErrorRecord.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    /**
+     * Reads a tree and fails on anything a SCIM service provider should not send: trailing
+     * tokens after the value and duplicate keys.
+     */
+    public static final ObjectReader STRICT_TREE_READER = mapper.reader()
+            .with(DeserializationFeature.FAIL_ON_TRAILING_TOKENS)
+            .with(DeserializationFeature.FAIL_ON_READING_DUP_TREE_KEY);
+
+    /**
+     * Writes request payloads, skipping null fields.
+     */
+    public static final ObjectWriter PAYLOAD_WRITER = mapper.copy()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .writer();
+    public static final ObjectWriter USER_PAYLOAD_WRITER = PAYLOAD_WRITER.forType(UserRecord.class);
+    public static final ObjectWriter GROUP_PAYLOAD_WRITER = PAYLOAD_WRITER.forType(GroupRecord.class);
+    public static final ObjectWriter PATCH_PAYLOAD_WRITER = PAYLOAD_WRITER.forType(PatchRequest.class);
+
+    public static final ObjectWriter WRITER = mapper.writer();
+    public static final ObjectWriter PRETTY_WRITER = mapper.writerWithDefaultPrettyPrinter();
+
+    /**
+     * Writes properties and map entries in a fixed order, so equal records are always written
+     * as the same bytes, e.g. to hash them.
+     */
+    public static final ObjectWriter CANONICAL_WRITER = mapper.rebuild()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .build()
+            .writer(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>(Map.of(
+            UserRecord.class, USER_READER,
+            GroupRecord.class, GROUP_READER,
+            BulkResponse.class, BULK_RESPONSE_READER,
+            MixedListResponse.class, MIXED_LIST_READER
+    ));
+    private static final Map<Class<?>, ObjectReader> listReaders = new ConcurrentHashMap<>(Map.of(
+            UserRecord.class, listReader(UserRecord.class, mapper),
+            GroupRecord.class, listReader(GroupRecord.class, mapper)
+    ));
+
+    private static final Map<Class<?>, ObjectWriter> payloadWriters = new ConcurrentHashMap<>(Map.of(
+            UserRecord.class, USER_PAYLOAD_WRITER,
+            GroupRecord.class, GROUP_PAYLOAD_WRITER,
+            PatchRequest.class, PATCH_PAYLOAD_WRITER
+    ));
+
+    private ScimJson() {
+    }
+
+    public static ObjectReader reader(Class<?> cls) {
+        return readers.computeIfAbsent(cls, mapper::readerFor);
+    }
+
+    /**
+     * Writer of request payloads of the given type, skipping null fields.
+     */
+    public static ObjectWriter payloadWriter(Class<?> cls) {
+        return payloadWriters.computeIfAbsent(cls, PAYLOAD_WRITER::forType);
+    }
+
+    /**
+     * Reader of a {@link ListResponse} with resources of the given type.
+     */
+    public static ObjectReader listReader(Class<?> cls) {
+        return listReaders.computeIfAbsent(cls, c -> listReader(c, mapper));
+    }
+
+    private static ObjectReader listReader(Class<?> cls, ObjectMapper mapper) {
+        JavaType type = mapper.getTypeFactory().constructParametricType(ListResponse.class, cls);
+        return mapper.readerFor(type);
+    }
+}
@@ -0,0 +1,81 @@
+package dev.suvera.helpers;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakTransaction;
+import org.keycloak.models.KeycloakTransactionManager;
+
+/**
+ * Session with an active transaction that only supports session attributes and transactions
+ * enlisted to run after completion. The test ends the transaction with {@link #commit()} or
+ * {@link #rollback()}. Any other method of the session fails.
+ */
+public class KeycloakSessionStub {
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final List<KeycloakTransaction> afterCompletion = new ArrayList<>();
+    private boolean active = true;
+
+    private final KeycloakTransactionManager transactionManager = proxy(KeycloakTransactionManager.class,
+            (method, args) -> {
+                switch (method) {
+                    case "isActive":
+                        return active;
+                    case "enlistAfterCompletion":
+                        KeycloakTransaction transaction = (KeycloakTransaction) args[0];
+                        transaction.begin();
+                        afterCompletion.add(transaction);
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method);
+                }
+            });
+
+    private final KeycloakSession session = proxy(KeycloakSession.class, (method, args) -> {
+        switch (method) {
+            case "getTransactionManager":
+                return transactionManager;
+            case "getAttribute":
+                return attributes.get((String) args[0]);
+            case "setAttribute":
+                attributes.put((String) args[0], args[1]);
+                return null;
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    });
+
+    public KeycloakSession session() {
+        return session;
+    }
+
+    public void commit() {
+        end();
+        afterCompletion.forEach(KeycloakTransaction::commit);
+    }
+
+    public void rollback() {
+        end();
+        afterCompletion.forEach(KeycloakTransaction::rollback);
+    }
+
+    private void end() {
+        if (!active) {
+            throw new IllegalStateException("Transaction is not active");
+        }
+        active = false;
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.invoke(method.getName(), args)));
+    }
+}
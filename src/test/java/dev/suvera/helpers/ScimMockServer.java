@@ -0,0 +1,54 @@
+package dev.suvera.helpers;
+
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.MediaType;
+
+/**
+ * In-process SCIM service provider on a free port that serves the discovery endpoints from the
+ * test resources. Tests add the expectations of the resources they call.
+ */
+public final class ScimMockServer {
+    private ScimMockServer() {
+    }
+
+    public static ClientAndServer start() throws IOException {
+        ClientAndServer mockServer = ClientAndServer.startClientAndServer();
+        serve(mockServer, "/ServiceProviderConfig", "/service-provider-config.json");
+        serve(mockServer, "/ResourceTypes", "/resource-types.json");
+        serve(mockServer, "/Schemas", "/schemas.json");
+        return mockServer;
+    }
+
+    public static String endPoint(ClientAndServer mockServer) {
+        return "http://localhost:" + mockServer.getPort();
+    }
+
+    public static String loadStringResource(String path) throws IOException {
+        try (InputStream input = ScimMockServer.class.getResourceAsStream(path)) {
+            if (input == null) {
+                throw new IOException("Missing test resource " + path);
+            }
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void serve(ClientAndServer mockServer, String path, String resource) throws IOException {
+        mockServer
+            .when(
+                request()
+                .withMethod("GET")
+                .withPath(path))
+            .respond(
+                response()
+                    .withStatusCode(200)
+                    .withBody(loadStringResource(resource), MediaType.APPLICATION_JSON)
+            );
+    }
+}
@@ -0,0 +1,200 @@
+package dev.suvera.scim2.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
+
+import dev.suvera.helpers.ScimMockServer;
+import dev.suvera.scim2.schema.data.misc.BulkRequest;
+import dev.suvera.scim2.schema.data.misc.BulkResponse;
+import dev.suvera.scim2.schema.data.misc.PatchRequest;
+import dev.suvera.scim2.schema.data.misc.PatchResponse;
+import dev.suvera.scim2.schema.data.user.UserRecord;
+import dev.suvera.scim2.schema.enums.PatchOp;
+import dev.suvera.scim2.schema.ex.ScimException;
+
+public class AsyncScim2ClientTests {
+    private static final long AWAIT_MILLIS = 5000;
+
+    private ClientAndServer mockServer;
+    private EndpointLimiter limiter;
+    private CircuitBreaker circuitBreaker;
+    private Scim2Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        mockServer = ScimMockServer.start();
+        limiter = new EndpointLimiter(4, 0, 1000);
+        circuitBreaker = new CircuitBreaker(2, 60_000);
+        client = new Scim2ClientBuilder(ScimMockServer.endPoint(mockServer))
+                .limiter(limiter)
+                .circuitBreaker(circuitBreaker)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        mockServer.stop();
+    }
+
+    @Test
+    public void readUser_ShouldNotSendRequest_WhenCancelledWhileWaitingForSlot() throws Exception {
+        serveUser(0);
+        for (int i = 0; i < limiter.getMaxConcurrency(); i++) {
+            limiter.acquire();
+        }
+
+        CompletableFuture<UserRecord> waiting = client.async().readUser("user-1");
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+
+        assertTrue(waiting.cancel(true));
+        for (int i = 0; i < limiter.getMaxConcurrency(); i++) {
+            limiter.releaseUnused();
+        }
+
+        await(() -> limiter.getInFlight() == 0);
+        mockServer.verify(request().withPath("/Users/user-1"), VerificationTimes.exactly(0));
+        assertEquals("id-federated-user", client.async().readUser("user-1").get(10, TimeUnit.SECONDS).getId());
+    }
+
+    @Test
+    public void readUser_ShouldCancelCallAndReleaseSlot_WhenCancelledInFlight() throws Exception {
+        serveUser(10);
+
+        CompletableFuture<UserRecord> inFlight = client.async().readUser("user-1");
+        await(() -> mockServer.retrieveRecordedRequests(request().withPath("/Users/user-1")).length == 1);
+        assertEquals(1, limiter.getInFlight());
+
+        assertTrue(inFlight.cancel(true));
+
+        await(() -> limiter.getInFlight() == 0);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void withDeadline_ShouldFailAndCancelCall_WhenDeadlinePasses() throws Exception {
+        serveUser(10);
+        long start = System.currentTimeMillis();
+
+        CompletableFuture<UserRecord> late = client.async().withDeadline(Duration.ofMillis(300)).readUser("user-1");
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> late.get(10, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof ScimException);
+        assertTrue(error.getCause().getMessage().contains("did not complete within"));
+
+        // the slot is released by the cancelled call, long before the response would arrive
+        await(() -> limiter.getInFlight() == 0);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void withDeadline_ShouldRemoveDeadline_WhenCallCompletes() throws Exception {
+        serveUser(0);
+
+        client.async().withDeadline(Duration.ofHours(1)).readUser("user-1").get(10, TimeUnit.SECONDS);
+
+        await(() -> Scim2ClientImpl.getPendingDeadlines() == 0);
+    }
+
+    @Test
+    public void readUser_ShouldSendAgain_WhenThrottledResponseAsksToRetryAfter() throws Exception {
+        mockServer
+            .when(
+                request()
+                .withMethod("GET")
+                .withPath("/Users/user-1"),
+                Times.exactly(1))
+            .respond(
+                response()
+                    .withStatusCode(429)
+                    .withHeader("Retry-After", "0")
+            );
+        serveUser(0);
+
+        UserRecord user = client.async().readUser("user-1").get(10, TimeUnit.SECONDS);
+
+        assertEquals("id-federated-user", user.getId());
+        mockServer.verify(request().withPath("/Users/user-1"), VerificationTimes.exactly(2));
+        assertEquals(1, limiter.getThrottled());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void bulk_ShouldFailAtOnce_WhenServiceProviderDoesNotSupportIt() {
+        CompletableFuture<BulkResponse> bulk = client.async().bulk(new BulkRequest());
+
+        assertTrue(bulk.isCompletedExceptionally());
+        assertEquals(0, limiter.getInFlight());
+        mockServer.verify(request().withPath("/Bulk"), VerificationTimes.exactly(0));
+    }
+
+    @Test
+    public void patchUser_ShouldFailAtOnce_WhenServiceProviderDoesNotSupportIt() throws Exception {
+        mockServer.clear(request().withPath("/ServiceProviderConfig"));
+        String spConfig = ScimMockServer.loadStringResource("/service-provider-config.json")
+                .replaceFirst("\"patch\": \\{\\s*\"supported\": true", "\"patch\": {\"supported\": false");
+        Scim2Client noPatchClient = new Scim2ClientBuilder(ScimMockServer.endPoint(mockServer))
+                .limiter(limiter)
+                .serviceProviderConfig(spConfig)
+                .build();
+        try {
+            PatchRequest<UserRecord> request = new PatchRequest<>(UserRecord.class);
+            request.addOperation(PatchOp.REPLACE, "active", false);
+
+            CompletableFuture<PatchResponse<UserRecord>> patch = noPatchClient.async().patchUser("user-1", request);
+
+            assertTrue(patch.isCompletedExceptionally());
+            assertEquals(0, limiter.getInFlight());
+            mockServer.verify(request().withMethod("PATCH"), VerificationTimes.exactly(0));
+        } finally {
+            noPatchClient.close();
+        }
+    }
+
+    private void serveUser(int delaySeconds) throws Exception {
+        mockServer
+            .when(
+                request()
+                .withMethod("GET")
+                .withPath("/Users/user-1"))
+            .respond(
+                response()
+                    .withStatusCode(200)
+                    .withDelay(TimeUnit.SECONDS, delaySeconds)
+                    .withBody(ScimMockServer.loadStringResource("/user-resource.json"), MediaType.APPLICATION_JSON)
+            );
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long until = System.currentTimeMillis() + AWAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > until) {
+                throw new AssertionError("Condition not met within " + AWAIT_MILLIS + " ms");
+            }
+            Thread.sleep(20);
+        }
+    }
+}
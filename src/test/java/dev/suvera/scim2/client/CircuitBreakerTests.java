@@ -0,0 +1,93 @@
+package dev.suvera.scim2.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTests {
+    @Test
+    public void onFailure_ShouldOpenBreaker_WhenThresholdIsReached() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        assertFalse(breaker.isOpen());
+
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.getOpenUntil() > System.currentTimeMillis());
+    }
+
+    @Test
+    public void onSuccess_ShouldResetFailureCount_WhenFailuresAreNotConsecutive() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60_000);
+
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void onFailure_ShouldNeverOpenBreaker_WhenThresholdIsZero() {
+        CircuitBreaker breaker = new CircuitBreaker(0, 60_000);
+
+        for (int i = 0; i < 100; i++) {
+            breaker.onFailure();
+        }
+
+        assertFalse(breaker.isOpen());
+        assertEquals(0, breaker.getOpenUntil());
+    }
+
+    @Test
+    public void tryStartProbe_ShouldFail_WhenOpenPeriodHasNotPassed() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 60_000);
+        breaker.onFailure();
+
+        assertFalse(breaker.tryStartProbe());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void tryStartProbe_ShouldAdmitOneProbe_WhenOpenPeriodHasPassed() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.onFailure();
+
+        assertTrue(breaker.tryStartProbe());
+        assertFalse(breaker.tryStartProbe());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // jobs stay held back while the probe runs
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    public void onSuccess_ShouldCloseBreaker_WhenProbeSucceeds() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.onFailure();
+        breaker.tryStartProbe();
+
+        breaker.onSuccess();
+
+        assertFalse(breaker.isOpen());
+        assertEquals(0, breaker.getOpenUntil());
+    }
+
+    @Test
+    public void onFailure_ShouldReopenBreaker_WhenProbeFails() {
+        CircuitBreaker breaker = new CircuitBreaker(5, 0);
+        for (int i = 0; i < 5; i++) {
+            breaker.onFailure();
+        }
+        assertTrue(breaker.tryStartProbe());
+
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+    }
+}
@@ -0,0 +1,129 @@
+package dev.suvera.scim2.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class EndpointLimiterTests {
+    private static final long ELAPSED_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void release_ShouldHalveLimit_WhenEndpointIsOverloaded() throws Exception {
+        EndpointLimiter limiter = new EndpointLimiter(8, 0, 0);
+
+        for (int expected : new int[]{4, 2, 1, 1}) {
+            limiter.acquire();
+            limiter.release(ELAPSED_NANOS, true);
+            assertEquals(expected, limiter.getLimit());
+        }
+        assertEquals(4, limiter.getThrottled());
+    }
+
+    @Test
+    public void release_ShouldGrowLimitByOnePerWindow_WhenRequestsSucceed() throws Exception {
+        EndpointLimiter limiter = new EndpointLimiter(3, 0, 0);
+        for (int i = 0; i < 2; i++) {
+            limiter.acquire();
+            limiter.release(ELAPSED_NANOS, true);
+        }
+        assertEquals(1, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(ELAPSED_NANOS, false);
+        assertEquals(2, limiter.getLimit());
+
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+            limiter.release(ELAPSED_NANOS, false);
+        }
+        assertEquals(3, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.release(ELAPSED_NANOS, false);
+        }
+        assertEquals(3, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void acquireAsync_ShouldWaitForToken_WhenBurstIsUsedUp() throws Exception {
+        EndpointLimiter limiter = new EndpointLimiter(100, 10, 0);
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.release(ELAPSED_NANOS, false);
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> slot = limiter.acquireAsync();
+        assertFalse(slot.isDone());
+
+        slot.get(5, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void acquireAsync_ShouldGrantWaitersInArrivalOrder_WhenSlotsAreReleased() throws Exception {
+        EndpointLimiter limiter = new EndpointLimiter(1, 0, 0);
+        limiter.acquire();
+
+        CompletableFuture<Void> first = limiter.acquireAsync();
+        CompletableFuture<Void> cancelled = limiter.acquireAsync();
+        CompletableFuture<Void> second = limiter.acquireAsync();
+        assertFalse(first.isDone());
+        cancelled.cancel(false);
+
+        limiter.release(ELAPSED_NANOS, false);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(1, limiter.getInFlight());
+
+        limiter.releaseUnused();
+        assertTrue(second.isDone());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void pause_ShouldDelayWaiters_WhenRetryAfterIsAccepted() throws Exception {
+        EndpointLimiter limiter = new EndpointLimiter(4, 0, 1000);
+
+        assertFalse(limiter.pause(2000));
+        assertTrue(limiter.pause(100));
+
+        CompletableFuture<Void> slot = limiter.acquireAsync();
+        assertFalse(slot.isDone());
+        slot.get(5, TimeUnit.SECONDS);
+        assertTrue(System.currentTimeMillis() >= limiter.getPausedUntil());
+    }
+
+    @Test
+    public void parseRetryAfter_ShouldReturnMillis_WhenValueIsDelaySeconds() {
+        assertEquals(5000, EndpointLimiter.parseRetryAfter("5"));
+        assertEquals(0, EndpointLimiter.parseRetryAfter("-1"));
+    }
+
+    @Test
+    public void parseRetryAfter_ShouldReturnMillisUntilDate_WhenValueIsHttpDate() {
+        String in10Seconds = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(10));
+        String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(10));
+
+        long millis = EndpointLimiter.parseRetryAfter(in10Seconds);
+        assertTrue(millis > 8000 && millis <= 10000);
+        assertEquals(0, EndpointLimiter.parseRetryAfter(past));
+    }
+
+    @Test
+    public void parseRetryAfter_ShouldReturnOneSecond_WhenValueIsMissingOrInvalid() {
+        assertEquals(1000, EndpointLimiter.parseRetryAfter(null));
+        assertEquals(1000, EndpointLimiter.parseRetryAfter(" "));
+        assertEquals(1000, EndpointLimiter.parseRetryAfter("soon"));
+    }
+}
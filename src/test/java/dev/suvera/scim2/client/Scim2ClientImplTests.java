@@ -0,0 +1,237 @@
+package dev.suvera.scim2.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+import java.net.ConnectException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.MatchType;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.JsonBody;
+import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
+
+import dev.suvera.helpers.ScimMockServer;
+import dev.suvera.scim2.schema.data.misc.PatchRequest;
+import dev.suvera.scim2.schema.data.misc.PatchResponse;
+import dev.suvera.scim2.schema.data.user.UserRecord;
+import dev.suvera.scim2.schema.enums.PatchOp;
+import dev.suvera.scim2.schema.ex.ScimException;
+
+public class Scim2ClientImplTests {
+    private ClientAndServer mockServer;
+    private EndpointLimiter limiter;
+    private CircuitBreaker circuitBreaker;
+    private Scim2Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        mockServer = ScimMockServer.start();
+        limiter = new EndpointLimiter(4, 0, 1000);
+        circuitBreaker = new CircuitBreaker(2, 60_000);
+        client = new Scim2ClientBuilder(ScimMockServer.endPoint(mockServer))
+                .limiter(limiter)
+                .circuitBreaker(circuitBreaker)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        mockServer.stop();
+    }
+
+    @Test
+    public void readUser_ShouldNotCountRetriedThrottles_WhenEndpointKeepsAnswering503() {
+        mockServer
+            .when(
+                request()
+                .withMethod("GET")
+                .withPath("/Users/user-1"))
+            .respond(
+                response()
+                    .withStatusCode(503)
+                    // a date in the past, OkHttp itself only sends a 503 again for delay seconds
+                    .withHeader("Retry-After", "Thu, 01 Jan 2026 00:00:00 GMT")
+            );
+
+        assertThrows(ScimException.class, () -> client.readUser("user-1"));
+
+        mockServer.verify(request().withPath("/Users/user-1"), VerificationTimes.exactly(5));
+        assertEquals(5, limiter.getThrottled());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void readUser_ShouldReturnUser_WhenThrottledRequestIsRetried() throws Exception {
+        mockServer
+            .when(
+                request()
+                .withMethod("GET")
+                .withPath("/Users/user-1"),
+                Times.exactly(1))
+            .respond(
+                response()
+                    .withStatusCode(429)
+                    .withHeader("Retry-After", "0")
+            );
+        mockServer
+            .when(
+                request()
+                .withMethod("GET")
+                .withPath("/Users/user-1"))
+            .respond(
+                response()
+                    .withStatusCode(200)
+                    .withBody(ScimMockServer.loadStringResource("/user-resource.json"), MediaType.APPLICATION_JSON)
+            );
+
+        client.readUser("user-1");
+
+        mockServer.verify(request().withPath("/Users/user-1"), VerificationTimes.exactly(2));
+        assertEquals(1, limiter.getThrottled());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void patchUser_ShouldThrowNonRetryableError_WhenRequestIsRejected() {
+        for (int status : new int[]{400, 404, 409}) {
+            String id = "user-" + status;
+            mockServer
+                .when(
+                    request()
+                    .withMethod("PATCH")
+                    .withPath("/Users/" + id))
+                .respond(
+                    response()
+                        .withStatusCode(status)
+                );
+
+            ScimException error = assertThrows(ScimException.class, () -> client.patchUser(id, deactivate()));
+
+            assertEquals(status, error.getStatus());
+            assertFalse(error.isRetryable());
+        }
+    }
+
+    @Test
+    public void patchUser_ShouldReturnNoResource_WhenServiceProviderAnswers204() throws Exception {
+        mockServer
+            .when(
+                request()
+                .withMethod("PATCH")
+                .withPath("/Users/user-1"))
+            .respond(
+                response()
+                    .withStatusCode(204)
+            );
+
+        PatchResponse<UserRecord> response = client.patchUser("user-1", deactivate());
+
+        assertEquals(204, response.getStatus());
+        assertNull(response.getResource());
+    }
+
+    @Test
+    public void readUser_ShouldFailWithConnectException_WhenEndpointIsDown() {
+        mockServer.stop();
+
+        ScimException error = assertThrows(ScimException.class, () -> client.readUser("user-1"));
+
+        assertEquals(0, error.getStatus());
+        assertTrue(error.getCause() instanceof ConnectException);
+    }
+
+    @Test
+    public void createUser_ShouldStreamPayloadAsJson() throws Exception {
+        mockServer
+            .when(
+                request()
+                .withMethod("POST")
+                .withPath("/Users"))
+            .respond(
+                response()
+                    .withStatusCode(201)
+                    .withBody(ScimMockServer.loadStringResource("/user-resource.json"), MediaType.APPLICATION_JSON)
+            );
+
+        UserRecord created = client.createUser(user("federated-user"));
+
+        assertEquals("id-federated-user", created.getId());
+        mockServer.verify(
+            request()
+                .withMethod("POST")
+                .withPath("/Users")
+                .withHeader("Content-Type", "application/scim\\+json.*")
+                .withBody(JsonBody.json("{\"userName\": \"federated-user\", \"active\": true}", MatchType.ONLY_MATCHING_FIELDS)),
+            VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void createUser_ShouldFailWithoutRetry_WhenPayloadCannotBeEncoded() {
+        for (int i = 0; i < 3; i++) {
+            ScimException error = assertThrows(ScimException.class, () -> client.createUser(new UnencodableUser()));
+
+            assertFalse(error.isRetryable());
+            assertEquals(0, error.getStatus());
+            assertTrue(error.getCause() instanceof JsonRequestBody.EncodingException);
+        }
+
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(4, limiter.getLimit());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        mockServer.verify(request().withPath("/Users"), VerificationTimes.exactly(0));
+    }
+
+    @Test
+    public void asyncCreateUser_ShouldFailWithoutRetry_WhenPayloadCannotBeEncoded() {
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture<UserRecord> created = client.async().createUser(new UnencodableUser());
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> created.get(10, TimeUnit.SECONDS));
+            assertTrue(error.getCause() instanceof ScimException);
+            assertFalse(((ScimException) error.getCause()).isRetryable());
+        }
+
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(4, limiter.getLimit());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    private static UserRecord user(String userName) {
+        UserRecord user = new UserRecord();
+        user.setUserName(userName);
+        user.setActive(true);
+        return user;
+    }
+
+    private static PatchRequest<UserRecord> deactivate() {
+        PatchRequest<UserRecord> request = new PatchRequest<>(UserRecord.class);
+        request.addOperation(PatchOp.REPLACE, "active", false);
+        return request;
+    }
+
+    /**
+     * User whose JSON encoding fails half way.
+     */
+    public static class UnencodableUser extends UserRecord {
+        @Override
+        public String getUserName() {
+            throw new IllegalStateException("userName cannot be encoded");
+        }
+    }
+}
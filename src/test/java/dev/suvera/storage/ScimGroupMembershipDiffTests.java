@@ -0,0 +1,83 @@
+package dev.suvera.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import dev.suvera.keycloak.scim2.storage.storage.ScimGroupMembershipDiff;
+import dev.suvera.scim2.schema.data.user.UserRecord;
+
+public class ScimGroupMembershipDiffTests {
+    @Test
+    public void of_ShouldBeEmpty_WhenMembershipsMatch() {
+        Map<String, String> localGroups = new LinkedHashMap<>();
+        localGroups.put("kc-1", "ext-1");
+        localGroups.put("kc-2", "ext-2");
+
+        ScimGroupMembershipDiff diff = ScimGroupMembershipDiff.of(localGroups,
+                List.of(group("ext-2", "direct"), group("ext-1", null)));
+
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void of_ShouldJoin_WhenGroupIsNotListedOrNotSyncedYet() {
+        Map<String, String> localGroups = new LinkedHashMap<>();
+        localGroups.put("kc-1", "ext-1");
+        localGroups.put("kc-2", null);
+        localGroups.put("kc-3", "ext-3");
+
+        ScimGroupMembershipDiff diff = ScimGroupMembershipDiff.of(localGroups, List.of(group("ext-1", "direct")));
+
+        assertEquals(List.of("kc-2", "kc-3"), diff.getJoins());
+        assertTrue(diff.getLeaves().isEmpty());
+    }
+
+    @Test
+    public void of_ShouldLeave_WhenListedGroupIsNoLongerAMembership() {
+        Map<String, String> localGroups = new LinkedHashMap<>();
+        localGroups.put("kc-1", "ext-1");
+
+        ScimGroupMembershipDiff diff = ScimGroupMembershipDiff.of(localGroups,
+                List.of(group("ext-1", "direct"), group("ext-2", "direct")));
+
+        assertTrue(diff.getJoins().isEmpty());
+        assertEquals(Set.of("ext-2"), diff.getLeaves());
+    }
+
+    @Test
+    public void of_ShouldIgnoreIndirectMemberships_WhenComparing() {
+        Map<String, String> localGroups = new LinkedHashMap<>();
+        localGroups.put("kc-1", "ext-1");
+
+        ScimGroupMembershipDiff diff = ScimGroupMembershipDiff.of(localGroups,
+                List.of(group("ext-1", "indirect"), group("ext-2", "indirect")));
+
+        assertEquals(List.of("kc-1"), diff.getJoins());
+        assertTrue(diff.getLeaves().isEmpty());
+    }
+
+    @Test
+    public void of_ShouldJoinAllGroups_WhenServiceProviderListsNoGroups() {
+        Map<String, String> localGroups = new LinkedHashMap<>();
+        localGroups.put("kc-1", "ext-1");
+
+        ScimGroupMembershipDiff diff = ScimGroupMembershipDiff.of(localGroups, null);
+
+        assertEquals(List.of("kc-1"), diff.getJoins());
+        assertTrue(diff.getLeaves().isEmpty());
+    }
+
+    private static UserRecord.UserGroup group(String value, String type) {
+        UserRecord.UserGroup group = new UserRecord.UserGroup();
+        group.setValue(value);
+        group.setType(type);
+        return group;
+    }
+}
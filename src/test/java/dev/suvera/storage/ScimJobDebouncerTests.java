@@ -0,0 +1,111 @@
+package dev.suvera.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import dev.suvera.keycloak.scim2.storage.storage.ScimJobDebouncer;
+import dev.suvera.keycloak.scim2.storage.storage.ScimJobOutbox;
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncJob;
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncJobCompactor;
+
+public class ScimJobDebouncerTests {
+    private static final long QUIET_PERIOD_MILLIS = 100;
+
+    private final List<List<ScimSyncJobQueue>> dispatched = new CopyOnWriteArrayList<>();
+    private final CountDownLatch firstDispatch = new CountDownLatch(1);
+    private ScimJobDebouncer debouncer;
+
+    @Before
+    public void setUp() {
+        debouncer = new ScimJobDebouncer(jobs -> {
+            dispatched.add(jobs);
+            firstDispatch.countDown();
+        });
+    }
+
+    @After
+    public void tearDown() {
+        debouncer.shutdown();
+    }
+
+    @Test
+    public void add_ShouldDispatchUserUpdateAndMembershipOnce_WhenUserIsEditedWithRolesAndGroups() throws InterruptedException {
+        ScimSyncJobQueue update = job(ScimSyncJob.CREATE_USER, "user-1", null, null);
+        ScimSyncJobQueue role = job(ScimSyncJob.ADD_ROLE_TO_USER, "user-1", null, "role-1");
+        ScimSyncJobQueue join = job(ScimSyncJob.JOIN_GROUP, "user-1", "group-1", null);
+
+        debouncer.add(List.of(entry(update)));
+        debouncer.add(List.of(entry(role)));
+        debouncer.add(List.of(entry(join)));
+
+        assertTrue(firstDispatch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(3 * QUIET_PERIOD_MILLIS);
+
+        assertEquals(1, dispatched.size());
+        List<ScimSyncJobQueue> burst = dispatched.get(0);
+        List<ScimSyncJobQueue> superseded = ScimSyncJobCompactor.findSuperseded(burst);
+        List<ScimSyncJobQueue> sent = new ArrayList<>(burst);
+        sent.removeAll(superseded);
+        assertEquals(List.of(update.getId(), join.getId()), ids(sent));
+        assertEquals(List.of(role.getId()), ids(superseded));
+        assertEquals(0, debouncer.getBuffered());
+    }
+
+    @Test
+    public void add_ShouldDispatchSeparately_WhenJobsBelongToDifferentComponents() throws InterruptedException {
+        ScimSyncJobQueue first = job(ScimSyncJob.CREATE_USER, "user-1", null, null);
+        first.setComponentId("component-1");
+        ScimSyncJobQueue second = job(ScimSyncJob.CREATE_USER, "user-1", null, null);
+        second.setComponentId("component-2");
+
+        debouncer.add(List.of(entry(first), entry(second)));
+
+        assertTrue(firstDispatch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(3 * QUIET_PERIOD_MILLIS);
+
+        assertEquals(2, dispatched.size());
+    }
+
+    @Test
+    public void findSuperseded_ShouldKeepRoleUnassignment_WhenUserIsUpdated() {
+        ScimSyncJobQueue update = job(ScimSyncJob.CREATE_USER, "user-1", null, null);
+        ScimSyncJobQueue unassign = job(ScimSyncJob.REMOVE_ROLE_FROM_USER, "user-1", null, "role-1");
+        ScimSyncJobQueue otherUser = job(ScimSyncJob.ADD_ROLE_TO_USER, "user-2", null, "role-1");
+
+        assertTrue(ScimSyncJobCompactor.findSuperseded(List.of(update, unassign, otherUser)).isEmpty());
+    }
+
+    private static ScimJobOutbox.Entry entry(ScimSyncJobQueue job) {
+        return new ScimJobOutbox.Entry(job, QUIET_PERIOD_MILLIS);
+    }
+
+    private static ScimSyncJobQueue job(String action, String userId, String groupId, String roleId) {
+        ScimSyncJobQueue job = new ScimSyncJobQueue();
+        job.setId(UUID.randomUUID().toString());
+        job.setRealmId("realm");
+        job.setAction(action);
+        job.setUserId(userId);
+        job.setGroupId(groupId);
+        job.setRoleId(roleId);
+        job.setCreatedOn(new Date());
+        return job;
+    }
+
+    private static List<String> ids(List<ScimSyncJobQueue> jobs) {
+        return jobs.stream().map(ScimSyncJobQueue::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,143 @@
+package dev.suvera.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.storage.user.SynchronizationResult;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncCheckpoint;
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncCheckpointManager;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+public class ScimSyncCheckpointManagerTests {
+    private static final String REALM = "realm";
+    private static final String COMPONENT = "component-1";
+
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setUp() {
+        emf = new Configuration()
+                .addAnnotatedClass(ScimSyncCheckpoint.class)
+                .setProperty(AvailableSettings.JAKARTA_JDBC_URL, "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                .setProperty(AvailableSettings.JAKARTA_JDBC_USER, "sa")
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .buildSessionFactory();
+    }
+
+    @After
+    public void tearDown() {
+        if (emf != null) {
+            emf.close();
+        }
+    }
+
+    @Test
+    public void start_ShouldBeginAtFirstUser_WhenThereIsNoCheckpoint() {
+        ScimSyncCheckpoint checkpoint = inTransaction(checkpoints -> checkpoints.start(REALM, COMPONENT, 500));
+
+        assertNull(checkpoint.getLastUserId());
+        assertEquals(0, checkpoint.getProcessed());
+        assertEquals(500, checkpoint.getTotal());
+        assertNotNull(checkpoint.getStartedOn());
+    }
+
+    @Test
+    public void start_ShouldResumeAfterCheckpoint_WhenPreviousRunWasInterrupted() {
+        inTransaction(checkpoints -> checkpoints.start(REALM, COMPONENT, 500));
+        inTransaction(checkpoints -> {
+            checkpoints.advance(COMPONENT, "user-199", 200, result(150, 40, 10));
+            return null;
+        });
+
+        ScimSyncCheckpoint resumed = inTransaction(checkpoints -> checkpoints.start(REALM, COMPONENT, 520));
+
+        assertEquals("user-199", resumed.getLastUserId());
+        assertEquals(200, resumed.getProcessed());
+        assertEquals(200, resumed.getResumedProcessed());
+        assertEquals(150, resumed.getAdded());
+        assertEquals(40, resumed.getUpdated());
+        assertEquals(10, resumed.getFailed());
+        assertEquals(520, resumed.getTotal());
+    }
+
+    @Test
+    public void start_ShouldBeginAtFirstUser_WhenPreviousRunFinished() {
+        inTransaction(checkpoints -> checkpoints.start(REALM, COMPONENT, 500));
+        inTransaction(checkpoints -> {
+            checkpoints.advance(COMPONENT, "user-499", 500, result(500, 0, 0));
+            checkpoints.finish(COMPONENT);
+            return null;
+        });
+
+        ScimSyncCheckpoint restarted = inTransaction(checkpoints -> checkpoints.start(REALM, COMPONENT, 500));
+
+        assertNull(restarted.getLastUserId());
+        assertEquals(0, restarted.getProcessed());
+        assertEquals(0, restarted.getAdded());
+        assertNull(restarted.getFinishedOn());
+    }
+
+    @Test
+    public void delete_ShouldForceFreshRun_WhenCheckpointIsDeleted() {
+        inTransaction(checkpoints -> checkpoints.start(REALM, COMPONENT, 500));
+        inTransaction(checkpoints -> {
+            checkpoints.advance(COMPONENT, "user-199", 200, result(200, 0, 0));
+            return null;
+        });
+
+        assertTrue(inTransaction(checkpoints -> checkpoints.delete(COMPONENT)));
+        assertFalse(inTransaction(checkpoints -> checkpoints.delete(COMPONENT)));
+
+        ScimSyncCheckpoint restarted = inTransaction(checkpoints -> checkpoints.start(REALM, COMPONENT, 500));
+        assertNull(restarted.getLastUserId());
+    }
+
+    @Test
+    public void getCheckpoints_ShouldReturnCheckpointsOfRealm() {
+        inTransaction(checkpoints -> checkpoints.start(REALM, "component-2", 10));
+        inTransaction(checkpoints -> checkpoints.start(REALM, COMPONENT, 10));
+        inTransaction(checkpoints -> checkpoints.start("other-realm", "component-3", 10));
+
+        List<ScimSyncCheckpoint> realmCheckpoints = inTransaction(checkpoints -> checkpoints.getCheckpoints(REALM));
+
+        assertEquals(List.of(COMPONENT, "component-2"),
+                realmCheckpoints.stream().map(ScimSyncCheckpoint::getComponentId).toList());
+    }
+
+    private <T> T inTransaction(Function<ScimSyncCheckpointManager, T> work) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            T result = work.apply(new ScimSyncCheckpointManager(em));
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private static SynchronizationResult result(int added, int updated, int failed) {
+        SynchronizationResult result = new SynchronizationResult();
+        result.setAdded(added);
+        result.setUpdated(updated);
+        result.setFailed(failed);
+        return result;
+    }
+}
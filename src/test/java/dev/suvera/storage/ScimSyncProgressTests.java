@@ -0,0 +1,60 @@
+package dev.suvera.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.keycloak.storage.user.SynchronizationResult;
+
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncProgress;
+
+public class ScimSyncProgressTests {
+    private final List<String> checkpoints = new ArrayList<>();
+    private final List<Integer> processed = new ArrayList<>();
+    private final List<Integer> added = new ArrayList<>();
+
+    private final ScimSyncProgress progress = new ScimSyncProgress((lastUserId, count, result) -> {
+        checkpoints.add(lastUserId);
+        processed.add(count);
+        added.add(result.getAdded());
+    });
+
+    @Test
+    public void complete_ShouldAdvance_WhenBatchesCompleteInOrder() {
+        progress.complete(0, "user-099", 100, added(1));
+        progress.complete(1, "user-199", 100, added(2));
+
+        assertEquals(List.of("user-099", "user-199"), checkpoints);
+        assertEquals(List.of(100, 100), processed);
+        assertEquals(List.of(1, 2), added);
+    }
+
+    @Test
+    public void complete_ShouldNotAdvance_WhenEarlierBatchIsStillRunning() {
+        progress.complete(1, "user-199", 100, added(2));
+        progress.complete(2, "user-299", 50, added(3));
+
+        assertTrue(checkpoints.isEmpty());
+    }
+
+    @Test
+    public void complete_ShouldAdvanceOverAllCompletedBatches_WhenGapIsFilled() {
+        progress.complete(2, "user-299", 50, added(3));
+        progress.complete(1, "user-199", 100, added(2));
+        progress.complete(0, "user-099", 100, added(1));
+        progress.complete(3, "user-399", 10, added(0));
+
+        assertEquals(List.of("user-299", "user-399"), checkpoints);
+        assertEquals(List.of(250, 10), processed);
+        assertEquals(List.of(6, 0), added);
+    }
+
+    private static SynchronizationResult added(int count) {
+        SynchronizationResult result = new SynchronizationResult();
+        result.setAdded(count);
+        return result;
+    }
+}
@@ -0,0 +1,38 @@
+package dev.suvera.storage.queue;
+
+import java.util.function.Function;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Before;
+
+import dev.suvera.keycloak.scim2.storage.storage.InfinispanScimJobStore;
+import dev.suvera.keycloak.scim2.storage.storage.KeyValueScimJobQueueBackend;
+import dev.suvera.keycloak.scim2.storage.storage.ScimJobQueueBackend;
+
+public class InfinispanScimJobQueueBackendTests extends ScimJobQueueBackendConformanceTests {
+    private DefaultCacheManager cacheManager;
+    private Cache<String, Object> cache;
+
+    @Before
+    public void setUp() {
+        cacheManager = new DefaultCacheManager();
+        cacheManager.defineConfiguration("work", new ConfigurationBuilder().build());
+        cache = cacheManager.getCache("work");
+        // entries of other Keycloak features share the work cache
+        cache.put("other-entry", 42);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cacheManager.close();
+    }
+
+    @Override
+    protected <T> T inTransaction(String leaseOwner, boolean commit, Function<ScimJobQueueBackend, T> work) {
+        // the store has no transactions
+        return work.apply(new KeyValueScimJobQueueBackend(new InfinispanScimJobStore(cache), deadLetterSink(), leaseOwner));
+    }
+}
@@ -0,0 +1,86 @@
+package dev.suvera.storage.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import dev.suvera.keycloak.scim2.storage.storage.JournalScimJobStore;
+import dev.suvera.keycloak.scim2.storage.storage.KeyValueScimJobQueueBackend;
+import dev.suvera.keycloak.scim2.storage.storage.ScimJobQueueBackend;
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncJob;
+
+public class JournalScimJobQueueBackendTests extends ScimJobQueueBackendConformanceTests {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JournalScimJobStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        store = open();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Override
+    protected <T> T inTransaction(String leaseOwner, boolean commit, Function<ScimJobQueueBackend, T> work) {
+        // the store has no transactions
+        return work.apply(new KeyValueScimJobQueueBackend(store, deadLetterSink(), leaseOwner));
+    }
+
+    @Test
+    public void open_ShouldRestoreJobs_WhenJournalIsReopened() throws IOException {
+        ScimSyncJobQueue kept = enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+        ScimSyncJobQueue removed = enqueue(job(ScimSyncJob.CREATE_USER, "user-2", null, 2));
+        inTransaction(NODE_A, backend -> {
+            backend.dequeueJob(removed);
+            return null;
+        });
+
+        store.close();
+        store = open();
+
+        List<ScimSyncJobQueue> pending = claimAll(NODE_A);
+        assertEquals(1, pending.size());
+        assertEquals(kept.getId(), pending.get(0).getId());
+    }
+
+    @Test
+    public void append_ShouldRewriteSegments_WhenMostRecordsAreObsolete() throws IOException {
+        for (int i = 0; i < 5000; i++) {
+            ScimSyncJobQueue job = enqueue(job(ScimSyncJob.CREATE_USER, "user-" + i, null, 1));
+            inTransaction(NODE_A, backend -> {
+                backend.dequeueJob(job);
+                return null;
+            });
+        }
+        ScimSyncJobQueue last = enqueue(job(ScimSyncJob.CREATE_USER, "user-last", null, 2));
+
+        File[] segments = folder.getRoot().listFiles();
+        assertTrue("journal was not rewritten, " + segments.length + " segments", segments.length < 10);
+
+        store.close();
+        store = open();
+        assertEquals(last.getId(), claimAll(NODE_A).get(0).getId());
+    }
+
+    private JournalScimJobStore open() throws IOException {
+        return new JournalScimJobStore(folder.getRoot().toPath(), SEGMENT_SIZE, false);
+    }
+}
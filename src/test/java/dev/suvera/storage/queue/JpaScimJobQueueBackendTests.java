@@ -0,0 +1,100 @@
+package dev.suvera.storage.queue;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import dev.suvera.keycloak.scim2.storage.storage.JpaScimJobQueueBackend;
+import dev.suvera.keycloak.scim2.storage.storage.ScimJobQueueBackend;
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncJob;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+public class JpaScimJobQueueBackendTests extends ScimJobQueueBackendConformanceTests {
+    private EntityManagerFactory emf;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        emf = new Configuration()
+                .addAnnotatedClass(ScimSyncJobQueue.class)
+                .setProperty(AvailableSettings.JAKARTA_JDBC_URL, "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                .setProperty(AvailableSettings.JAKARTA_JDBC_USER, "sa")
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .buildSessionFactory();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        if (emf != null) {
+            emf.close();
+        }
+    }
+
+    @Override
+    protected <T> T inTransaction(String leaseOwner, boolean commit, Function<ScimJobQueueBackend, T> work) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            T result = work.apply(new JpaScimJobQueueBackend(em, deadLetterSink(), leaseOwner));
+            if (commit) {
+                em.getTransaction().commit();
+            }
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    @Test
+    public void enqueueJob_ShouldReturnCommittedJob_WhenSameJobIsEnqueuedConcurrently() throws Exception {
+        assertConcurrentEnqueue(false);
+    }
+
+    @Test
+    public void enqueueJobAndResetProcessed_ShouldReturnCommittedJob_WhenSameJobIsEnqueuedConcurrently() throws Exception {
+        assertConcurrentEnqueue(true);
+    }
+
+    /**
+     * The second transaction inserts while the first one holds an uncommitted job with the
+     * same DEDUPE_KEY, and must neither fail nor create a second job.
+     */
+    private void assertConcurrentEnqueue(boolean resetProcessed) throws Exception {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        ScimSyncJobQueue first = new JpaScimJobQueueBackend(em, deadLetterSink(), NODE_A)
+                .enqueueJob(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+
+        Future<String> second = executor.submit(() -> inTransaction(NODE_B, backend -> {
+            ScimSyncJobQueue job = job(ScimSyncJob.CREATE_USER, "user-1", null, 2);
+            return (resetProcessed ? backend.enqueueJobAndResetProcessed(job) : backend.enqueueJob(job)).getId();
+        }));
+
+        // let the second insert wait for the uncommitted job
+        Thread.sleep(200);
+        em.getTransaction().commit();
+        em.close();
+
+        assertEquals(first.getId(), second.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of(first.getId()), ids(claimAll(NODE_A)));
+    }
+}
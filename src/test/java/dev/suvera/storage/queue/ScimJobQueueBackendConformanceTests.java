@@ -0,0 +1,383 @@
+package dev.suvera.storage.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import dev.suvera.helpers.KeycloakSessionStub;
+import dev.suvera.keycloak.scim2.storage.jpa.ScimSyncJobQueue;
+import dev.suvera.keycloak.scim2.storage.storage.PendingJobCursor;
+import dev.suvera.keycloak.scim2.storage.storage.RetryPolicy;
+import dev.suvera.keycloak.scim2.storage.storage.ScimJobOutbox;
+import dev.suvera.keycloak.scim2.storage.storage.ScimJobQueueBackend;
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncJob;
+import dev.suvera.keycloak.scim2.storage.storage.ScimSyncJobBatch;
+
+/**
+ * Behaviour every {@link ScimJobQueueBackend} must have. Subclasses provide backends of two
+ * nodes, "node-a" and "node-b", sharing one store.
+ */
+public abstract class ScimJobQueueBackendConformanceTests {
+    protected static final String NODE_A = "node-a";
+    protected static final String NODE_B = "node-b";
+
+    private static final RetryPolicy LONG_BACKOFF = new RetryPolicy(3, 3600_000L, 3600_000L);
+    private static final RetryPolicy NO_RETRY = new RetryPolicy(1, 1000L, 1000L);
+
+    protected final List<ScimSyncJobQueue> deadLetters = new ArrayList<>();
+
+    /**
+     * Runs the work with the backend of the given node in its own transaction, and commits or
+     * rolls back the transaction afterwards.
+     */
+    protected abstract <T> T inTransaction(String leaseOwner, boolean commit, Function<ScimJobQueueBackend, T> work);
+
+    protected <T> T inTransaction(String leaseOwner, Function<ScimJobQueueBackend, T> work) {
+        return inTransaction(leaseOwner, true, work);
+    }
+
+    protected BiConsumer<ScimSyncJobQueue, Exception> deadLetterSink() {
+        return (job, error) -> deadLetters.add(new ScimSyncJobQueue(job));
+    }
+
+    @Test
+    public void enqueueJob_ShouldReturnExistingJob_WhenDedupeKeyMatches() {
+        ScimSyncJobQueue first = enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+        ScimSyncJobQueue second = enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 2));
+
+        assertEquals(first.getId(), second.getId());
+        assertEquals(List.of(first.getId()), ids(claimAll(NODE_A)));
+    }
+
+    @Test
+    public void enqueueJobAndResetProcessed_ShouldMakeJobEligible_WhenJobIsBackingOff() {
+        ScimSyncJobQueue job = enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+        ScimSyncJobQueue claimed = claimAll(NODE_A).get(0);
+        inTransaction(NODE_A, backend -> {
+            backend.increaseRetry(claimed, LONG_BACKOFF, new Exception("failed"));
+            return null;
+        });
+        assertTrue(claimAll(NODE_A).isEmpty());
+
+        inTransaction(NODE_B, backend -> backend.enqueueJobAndResetProcessed(job(ScimSyncJob.CREATE_USER, "user-1", null, 2)));
+
+        List<ScimSyncJobQueue> pending = claimAll(NODE_B);
+        assertEquals(List.of(job.getId()), ids(pending));
+        assertEquals(0, pending.get(0).getProcessed());
+    }
+
+    @Test
+    public void enqueueJobAndResetProcessed_ShouldMoveJobToEndOfQueue_WhenJobExists() {
+        ScimSyncJobQueue join = enqueueAndReset(job(ScimSyncJob.JOIN_GROUP, "user-1", "group-1", 1));
+        enqueueAndReset(job(ScimSyncJob.LEAVE_GROUP, "user-1", "group-1", 2));
+        ScimSyncJobQueue rejoin = enqueueAndReset(job(ScimSyncJob.JOIN_GROUP, "user-1", "group-1", 3));
+
+        assertEquals(join.getId(), rejoin.getId());
+        assertEquals(List.of(join.getId()), ids(claimAll(NODE_A)));
+    }
+
+    @Test
+    public void outboxEnqueue_ShouldNeitherStoreNorDispatchJob_WhenTransactionRollsBack() {
+        KeycloakSessionStub keycloak = new KeycloakSessionStub();
+        List<ScimJobOutbox.Entry> dispatched = new ArrayList<>();
+
+        inTransaction(NODE_A, false, backend -> {
+            ScimJobOutbox.enqueue(keycloak.session(), backend, job(ScimSyncJob.CREATE_USER, "user-1", null, 1),
+                    0, true, dispatched::addAll);
+            return null;
+        });
+        keycloak.rollback();
+
+        assertTrue(dispatched.isEmpty());
+        assertTrue(claimAll(NODE_A).isEmpty());
+    }
+
+    @Test
+    public void outboxEnqueue_ShouldStoreAndDispatchJob_WhenTransactionCommits() {
+        KeycloakSessionStub keycloak = new KeycloakSessionStub();
+        List<ScimJobOutbox.Entry> dispatched = new ArrayList<>();
+        ScimSyncJobQueue existing = enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+
+        inTransaction(NODE_A, true, backend -> {
+            ScimJobOutbox.enqueue(keycloak.session(), backend, job(ScimSyncJob.CREATE_USER, "user-1", null, 2),
+                    0, true, dispatched::addAll);
+            ScimJobOutbox.enqueue(keycloak.session(), backend, job(ScimSyncJob.CREATE_USER, "user-2", null, 3),
+                    0, false, dispatched::addAll);
+            return null;
+        });
+        keycloak.commit();
+
+        assertEquals(1, dispatched.size());
+        assertEquals(existing.getId(), dispatched.get(0).getJob().getId());
+        assertEquals(2, claimAll(NODE_A).size());
+    }
+
+    @Test
+    public void claimPendingJobs_ShouldReturnPagesInQueueOrder() {
+        List<String> expected = new ArrayList<>();
+        for (int i = 4; i >= 0; i--) {
+            expected.add(0, enqueue(job(ScimSyncJob.CREATE_USER, "user-" + i, null, i)).getId());
+        }
+
+        PendingJobCursor cursor = new PendingJobCursor();
+        List<String> claimed = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        while (cursor.hasMore()) {
+            List<ScimSyncJobQueue> page = inTransaction(NODE_A,
+                    backend -> backend.claimPendingJobs(cursor, 2, ScimJobQueueBackend.DEFAULT_LEASE_MILLIS));
+            pageSizes.add(page.size());
+            claimed.addAll(ids(page));
+        }
+
+        assertEquals(expected, claimed);
+        assertEquals(List.of(2, 2, 1, 0), pageSizes);
+    }
+
+    @Test
+    public void claimPendingJobs_ShouldSkipJob_WhenRetriedAfterDrainStarted() {
+        ScimSyncJobQueue first = enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+        ScimSyncJobQueue second = enqueue(job(ScimSyncJob.CREATE_USER, "user-2", null, 2));
+
+        PendingJobCursor cursor = new PendingJobCursor();
+        List<ScimSyncJobQueue> page = inTransaction(NODE_A,
+                backend -> backend.claimPendingJobs(cursor, 1, ScimJobQueueBackend.DEFAULT_LEASE_MILLIS));
+        assertEquals(List.of(first.getId()), ids(page));
+
+        assertTrue(claim(NODE_B, second));
+        inTransaction(NODE_B, backend -> {
+            backend.increaseRetry(new ScimSyncJobQueue(second), LONG_BACKOFF, new Exception("failed"));
+            return null;
+        });
+
+        assertTrue(inTransaction(NODE_A,
+                backend -> backend.claimPendingJobs(cursor, 1, ScimJobQueueBackend.DEFAULT_LEASE_MILLIS)).isEmpty());
+    }
+
+    @Test
+    public void claimPendingJobs_ShouldSkipJobs_WhenLeasedByAnotherNode() {
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-2", null, 2));
+
+        assertEquals(2, claimAll(NODE_A).size());
+        assertTrue(claimAll(NODE_B).isEmpty());
+    }
+
+    @Test
+    public void claimPendingJobs_ShouldReturnJob_WhenLeaseExpired() {
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+
+        List<ScimSyncJobQueue> expired = inTransaction(NODE_A,
+                backend -> backend.claimPendingJobs(new PendingJobCursor(), 10, -1000L));
+        assertEquals(1, expired.size());
+
+        assertEquals(ids(expired), ids(claimAll(NODE_B)));
+    }
+
+    @Test
+    public void claimJob_ShouldFail_WhenJobIsLeased() {
+        ScimSyncJobQueue job = enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+
+        assertTrue(claim(NODE_A, job));
+        assertFalse(claim(NODE_B, job));
+        assertFalse(claim(NODE_A, job));
+    }
+
+    @Test
+    public void claimJob_ShouldFail_WhenJobIsClaimedByTheDrainOfTheSameNode() {
+        ScimSyncJobQueue job = enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+
+        assertEquals(List.of(job.getId()), ids(claimAll(NODE_A)));
+        assertFalse(claim(NODE_A, job));
+    }
+
+    @Test
+    public void claimJob_ShouldSucceed_WhenLeaseExpired() {
+        ScimSyncJobQueue job = enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+
+        assertTrue(inTransaction(NODE_A, backend -> backend.claimJob(new ScimSyncJobQueue(job), -1000L)));
+        assertTrue(claim(NODE_B, job));
+    }
+
+    @Test
+    public void dequeueJob_ShouldRemoveJob() {
+        ScimSyncJobQueue job = enqueue(job(ScimSyncJob.CREATE_GROUP, null, "group-1", 1));
+
+        inTransaction(NODE_A, backend -> {
+            backend.dequeueJob(job);
+            return null;
+        });
+
+        assertTrue(claimAll(NODE_A).isEmpty());
+        assertNotEquals(job.getId(), enqueue(job(ScimSyncJob.CREATE_GROUP, null, "group-1", 2)).getId());
+    }
+
+    @Test
+    public void increaseRetry_ShouldDeadLetterAndRemoveJob_WhenRetriesAreExhausted() {
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+        ScimSyncJobQueue claimed = claimAll(NODE_A).get(0);
+
+        inTransaction(NODE_A, backend -> {
+            backend.increaseRetry(claimed, NO_RETRY, new Exception("failed"));
+            return null;
+        });
+
+        assertEquals(List.of(claimed.getId()), ids(deadLetters));
+        assertEquals(1, deadLetters.get(0).getProcessed());
+        assertNotEquals(claimed.getId(), enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 2)).getId());
+    }
+
+    @Test
+    public void applyBatch_ShouldRemoveCompletedAndRescheduleFailedJobs() {
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-2", null, 2));
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-3", null, 3));
+        List<ScimSyncJobQueue> claimed = claimAll(NODE_A);
+
+        ScimSyncJobBatch batch = new ScimSyncJobBatch();
+        batch.complete(claimed.get(0));
+        batch.fail(claimed.get(1), LONG_BACKOFF, new Exception("failed"));
+        batch.fail(claimed.get(2), NO_RETRY, new Exception("failed"));
+        inTransaction(NODE_A, backend -> {
+            backend.applyBatch(batch);
+            return null;
+        });
+
+        assertNotEquals(claimed.get(0).getId(), enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 4)).getId());
+        ScimSyncJobQueue retried = enqueue(job(ScimSyncJob.CREATE_USER, "user-2", null, 5));
+        assertEquals(claimed.get(1).getId(), retried.getId());
+        assertEquals(1, retried.getProcessed());
+        assertTrue(retried.getNextAttemptAt().after(new Date()));
+        assertEquals(List.of(claimed.get(2).getId()), ids(deadLetters));
+    }
+
+    @Test
+    public void applyBatch_ShouldJitterEveryRetriedJob() {
+        for (int i = 0; i < 5; i++) {
+            enqueue(job(ScimSyncJob.CREATE_USER, "user-" + i, null, i));
+        }
+        List<ScimSyncJobQueue> claimed = claimAll(NODE_A);
+
+        ScimSyncJobBatch batch = new ScimSyncJobBatch();
+        claimed.forEach(job -> batch.fail(job, LONG_BACKOFF, new Exception("failed")));
+        inTransaction(NODE_A, backend -> {
+            backend.applyBatch(batch);
+            return null;
+        });
+
+        Set<Date> nextAttempts = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            ScimSyncJobQueue retried = enqueue(job(ScimSyncJob.CREATE_USER, "user-" + i, null, 10 + i));
+            assertEquals(1, retried.getProcessed());
+            nextAttempts.add(retried.getNextAttemptAt());
+        }
+        assertTrue("retries share their next attempt: " + nextAttempts, nextAttempts.size() > 1);
+    }
+
+    @Test
+    public void applyBatch_ShouldReleaseDeferredJobs_WithoutCountingAnAttempt() {
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+        List<ScimSyncJobQueue> claimed = claimAll(NODE_A);
+
+        ScimSyncJobBatch batch = new ScimSyncJobBatch();
+        batch.defer(claimed.get(0));
+        inTransaction(NODE_A, backend -> {
+            backend.applyBatch(batch);
+            return null;
+        });
+
+        List<ScimSyncJobQueue> reclaimed = claimAll(NODE_B);
+        assertEquals(ids(claimed), ids(reclaimed));
+        assertEquals(0, reclaimed.get(0).getProcessed());
+    }
+
+    @Test
+    public void claimPendingJobs_ShouldDropSupersededJobs() {
+        ScimSyncJobQueue join = enqueue(job(ScimSyncJob.JOIN_GROUP, "user-1", "group-1", 1));
+        ScimSyncJobQueue leave = enqueue(job(ScimSyncJob.LEAVE_GROUP, "user-1", "group-1", 2));
+
+        assertEquals(List.of(leave.getId()), ids(claimAll(NODE_A)));
+        assertNotEquals(join.getId(), enqueue(job(ScimSyncJob.JOIN_GROUP, "user-1", "group-1", 3)).getId());
+    }
+
+    @Test
+    public void purgeJobs_ShouldDeadLetterOnlyJobsIdleBefore_UpToMaxResults() {
+        ScimSyncJobQueue recent = enqueue(job(ScimSyncJob.CREATE_USER, "user-recent", null, 30));
+        Date before = new Date(recent.getCreatedOn().getTime() - 1000L);
+        List<String> idle = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            idle.add(enqueue(job(ScimSyncJob.CREATE_USER, "user-" + i, null, i)).getId());
+        }
+
+        assertEquals(2, (int) inTransaction(NODE_A, backend -> backend.purgeJobs(before, 2)));
+        assertEquals(1, (int) inTransaction(NODE_A, backend -> backend.purgeJobs(before, 2)));
+        assertEquals(0, (int) inTransaction(NODE_A, backend -> backend.purgeJobs(before, 2)));
+        assertEquals(List.of(recent.getId()), ids(claimAll(NODE_A)));
+        assertEquals(idle, ids(deadLetters));
+    }
+
+    @Test
+    public void purgeJobs_ShouldKeepJobs_WhenLeasedOrRecentlyReenqueuedOrRetried() {
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-1", null, 1));
+        Date before = new Date(System.currentTimeMillis() - 30_000L);
+        claimAll(NODE_A);
+
+        enqueue(job(ScimSyncJob.CREATE_USER, "user-2", null, 2));
+        enqueueAndReset(job(ScimSyncJob.CREATE_USER, "user-2", null, 3));
+
+        enqueue(job(ScimSyncJob.CREATE_GROUP, null, "group-1", 4));
+        ScimSyncJobQueue retried = claimAll(NODE_B).get(0);
+        inTransaction(NODE_B, backend -> {
+            backend.increaseRetry(retried, LONG_BACKOFF, new Exception("failed"));
+            return null;
+        });
+
+        assertEquals(0, (int) inTransaction(NODE_B, backend -> backend.purgeJobs(before, 10)));
+        assertTrue(deadLetters.isEmpty());
+    }
+
+    protected ScimSyncJobQueue job(String action, String userId, String groupId, int createdOnSeconds) {
+        ScimSyncJobQueue job = new ScimSyncJobQueue();
+        job.setId(UUID.randomUUID().toString());
+        job.setRealmId("realm");
+        job.setAction(action);
+        job.setUserId(userId);
+        job.setGroupId(groupId);
+        job.setCreatedOn(new Date(System.currentTimeMillis() - 60_000L + createdOnSeconds * 1000L));
+        return job;
+    }
+
+    protected ScimSyncJobQueue enqueue(ScimSyncJobQueue job) {
+        return inTransaction(NODE_A, backend -> new ScimSyncJobQueue(backend.enqueueJob(job)));
+    }
+
+    protected ScimSyncJobQueue enqueueAndReset(ScimSyncJobQueue job) {
+        return inTransaction(NODE_A, backend -> new ScimSyncJobQueue(backend.enqueueJobAndResetProcessed(job)));
+    }
+
+    protected List<ScimSyncJobQueue> claimAll(String leaseOwner) {
+        return inTransaction(leaseOwner, backend -> backend.claimPendingJobs(new PendingJobCursor(), 100,
+                ScimJobQueueBackend.DEFAULT_LEASE_MILLIS));
+    }
+
+    private boolean claim(String leaseOwner, ScimSyncJobQueue job) {
+        return inTransaction(leaseOwner, backend -> backend.claimJob(new ScimSyncJobQueue(job),
+                ScimJobQueueBackend.DEFAULT_LEASE_MILLIS));
+    }
+
+    protected static List<String> ids(List<ScimSyncJobQueue> jobs) {
+        return jobs.stream().map(ScimSyncJobQueue::getId).collect(Collectors.toList());
+    }
+}